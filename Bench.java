@@ -0,0 +1,611 @@
+/*
+  File Name: Bench.java
+  Description: Scaling benchmarks for the compiler phases. Each benchmark builds synthetic C Minus sources
+    of growing size in memory, runs one phase over them and prints the time per source item, so it is easy
+    to see whether a phase grows linearly with the size of its input.
+
+  Execution:
+    java -classpath ./java-cup-bin/java-cup-11b.jar:. Bench <benchmark>
+
+  Benchmarks:
+    parse : parse 1k to 100k top-level declarations, and blocks of 1k to 100k statements.
+    lex   : lexer throughput in MB/s and tokens/s on comment-heavy files of 1 to 16 MB, read through a FileReader
+            or in bulk, with a Symbol per token or into a TokenBuffer, and parsing from the lexer or the buffer.
+    scope : semantic analysis and code generation of programs with thousands of functions and of deeply nested blocks,
+            and the code generation phase on its own.
+    load  : size and load time of large programs as .tm text and as .tmo objects, with every function
+            called and with main calling only one of them.
+    sort  : static and executed TM instruction counts of sort.cm for growing array sizes, without and with -O.
+    count : static and executed TM instruction counts of fac.cm, gcd.cm and sort.cm on fixed inputs,
+            without and with the optimizations of -O.
+    flow  : control-flow graph and dominators, liveness and reaching definitions of one function
+            with thousands of basic blocks.
+    inline: inlining time, call sites inlined and instruction counts of programs with hundreds to thousands
+            of small functions, without and with -O.
+    tail  : a self-recursive function with a call in tail position run to growing depths, without and with -O.
+    tree  : heap bytes per source line while compiling as CM does, after parsing, analysis, lowering to IR and
+            TM code generation, and what the absyn classes built from the Arena would add.
+*/
+
+import java.io.*;
+import java.lang.ref.Reference;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import absyn.*;
+import ir.*;
+
+class Bench {
+  final static int[] SIZES = { 1000, 10000, 50000, 100000 };
+  final static int RUNS = 5;
+
+  static public void main(String argv[]) {
+    if (argv.length == 0) {
+      System.out.println("Usage: Bench parse|lex|scope|load|sort|count|flow|inline|tail|tree");
+      return;
+    }
+    try {
+      if (argv[0].equals("parse")) {
+        parseBench();
+      } else if (argv[0].equals("lex")) {
+        lexBench();
+      } else if (argv[0].equals("scope")) {
+        scopeBench();
+      } else if (argv[0].equals("load")) {
+        loadBench();
+      } else if (argv[0].equals("sort")) {
+        sortBench();
+      } else if (argv[0].equals("count")) {
+        countBench();
+      } else if (argv[0].equals("flow")) {
+        flowBench();
+      } else if (argv[0].equals("inline")) {
+        inlineBench();
+      } else if (argv[0].equals("tail")) {
+        tailBench();
+      } else if (argv[0].equals("tree")) {
+        treeBench();
+      } else {
+        System.out.println("Unknown benchmark: " + argv[0]);
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  /* N global declarations, every fourth one a function. */
+  static String declarations(int n) {
+    StringBuilder sb = new StringBuilder(n * 24);
+    for (int i = 0; i < n; i++) {
+      if (i % 4 == 3)
+        sb.append("int f").append(i).append("(int a) { return a; }\n");
+      else
+        sb.append("int g").append(i).append(";\n");
+    }
+    sb.append("void main(void) { }\n");
+    return sb.toString();
+  }
+
+  /* One function whose body holds N statements. */
+  static String statements(int n) {
+    StringBuilder sb = new StringBuilder(n * 16);
+    sb.append("void main(void) {\n  int x;\n");
+    for (int i = 0; i < n; i++)
+      sb.append("  x = x + ").append(i).append(";\n");
+    sb.append("}\n");
+    return sb.toString();
+  }
+
+  /* N functions, each with a few locals and a block, all called from main. */
+  static String functions(int n) {
+    return functions(n, n);
+  }
+
+  /* N functions as above, of which main calls the first called. */
+  static String functions(int n, int called) {
+    StringBuilder sb = new StringBuilder(n * 80);
+    sb.append("int g;\n");
+    for (int i = 0; i < n; i++) {
+      sb.append("int f").append(i).append("(int a, int b) {\n  int x; int y;\n");
+      sb.append("  x = a;\n  if (x < b) { int z; z = b; x = z; }\n  return x;\n}\n");
+    }
+    sb.append("void main(void) {\n");
+    for (int i = 0; i < called; i++) {
+      sb.append("  g = f").append(i).append("(1, 2);\n");
+    }
+    sb.append("}\n");
+    return sb.toString();
+  }
+
+  /* main holds N blocks, in groups nested DEPTH deep, each block declaring a local. */
+  static String nested(int n) {
+    final int DEPTH = 32;
+    StringBuilder sb = new StringBuilder(n * 40);
+    sb.append("void main(void) {\n  int x;\n  x = 1;\n");
+    for (int g = 0; g < n; g += DEPTH) {
+      for (int i = 0; i < DEPTH; i++)
+        sb.append("  while (x < 0) { int v").append(i).append(";\n");
+      for (int i = 0; i < DEPTH; i++)
+        sb.append("  }\n");
+    }
+    sb.append("}\n");
+    return sb.toString();
+  }
+
+  /* The selection sort of sort.cm over a global array of N elements. */
+  static String sort(int n) {
+    StringBuilder sb = new StringBuilder(1024);
+    sb.append("int x[").append(n).append("];\n");
+    sb.append("int minloc(int a[], int low, int high) {\n  int i; int x; int k;\n  k = low;\n  x = a[low];\n");
+    sb.append("  i = low + 1;\n  while (i < high) {\n    if (a[i] < x) {\n      x = a[i];\n      k = i;\n    }\n");
+    sb.append("    i = i + 1;\n  }\n  return k;\n}\n");
+    sb.append("void sort(int a[], int low, int high) {\n  int i; int k;\n  i = low;\n  while (i < high - 1) {\n");
+    sb.append("    int t;\n    k = minloc(a, i, high);\n    t = a[k];\n    a[k] = a[i];\n    a[i] = t;\n");
+    sb.append("    i = i + 1;\n  }\n}\n");
+    sb.append("void main(void) {\n  int i;\n  i = 0;\n  while (i < ").append(n).append(") {\n");
+    sb.append("    x[i] = input();\n    i = i + 1;\n  }\n  sort(x, 0, ").append(n).append(");\n");
+    sb.append("  i = 0;\n  while (i < ").append(n).append(") {\n    output(x[i]);\n    i = i + 1;\n  }\n}\n");
+    return sb.toString();
+  }
+
+  /* main holds a loop around N ifs, each assigning one of a few locals: about 3N basic blocks. */
+  static String branches(int n) {
+    StringBuilder sb = new StringBuilder(n * 40);
+    sb.append("void main(void) {\n  int i; int a; int b; int c;\n  i = 0; a = input(); b = 0; c = 0;\n");
+    sb.append("  while (i < 10) {\n");
+    for (int k = 0; k < n; k++) {
+      String v = k % 3 == 0 ? "a" : k % 3 == 1 ? "b" : "c";
+      sb.append("    if (i < ").append(k % 10).append(") ").append(v).append(" = a + ").append(k).append(";");
+      sb.append(" else c = b;\n");
+    }
+    sb.append("    i = i + 1;\n  }\n  output(a + b + c);\n}\n");
+    return sb.toString();
+  }
+
+  /* N one-line helpers, every odd one calling the one before it, and a main calling each of them in a loop. */
+  static String helpers(int n) {
+    StringBuilder sb = new StringBuilder(n * 80);
+    for (int k = 0; k < n; k++) {
+      sb.append("int f").append(k).append("(int x) { return ");
+      if (k % 2 == 0) {
+        sb.append("x + ").append(k);
+      } else {
+        sb.append("f").append(k - 1).append("(x) * 2 - ").append(k);
+      }
+      sb.append("; }\n");
+    }
+    sb.append("void main(void) {\n  int i; int s;\n  i = 0; s = 0;\n  while (i < 10) {\n");
+    for (int k = 0; k < n; k++) {
+      sb.append("    s = s + f").append(k).append("(i);\n");
+    }
+    sb.append("    i = i + 1;\n  }\n  output(s);\n}\n");
+    return sb.toString();
+  }
+
+  /* About n bytes of functions, each under a block comment and with a comment on every statement, with a
+     longer comment every hundredth function. */
+  static String commented(int n) {
+    StringBuilder sb = new StringBuilder(n + 4096);
+    sb.append("int g;\n");
+    for (int k = 0; sb.length() < n; k++) {
+      sb.append("/* f").append(k).append(": adds its arguments to a running total, scaled by ").append(k);
+      sb.append(" *\n * and returns it; see the notes on ** totals ** above.\n */\n");
+      if (k % 100 == 0) {
+        sb.append("/*\n");
+        for (int i = 0; i < 40; i++) {
+          sb.append(" * notes: a / b * c keeps the running totals of the helpers below in range\n");
+        }
+        sb.append(" */\n");
+      }
+      sb.append("int f").append(k).append("(int a, int b) {\n  int x; /* the total */\n");
+      sb.append("  x = a * ").append(k).append(" + b; /* scale */\n  g = g + x; /* keep it */\n  return x;\n}\n");
+    }
+    sb.append("void main(void) { output(g); }\n");
+    return sb.toString();
+  }
+
+  static int parse(String src) throws Exception {
+    return (Integer) parser(src).parse().value;
+  }
+
+  static parser parser(String src) {
+    return new parser(new Lexer(new StringReader(src)));
+  }
+
+  /* Best-of-RUNS wall time in nanoseconds for parsing src. */
+  static long timeParse(String src) throws Exception {
+    long best = Long.MAX_VALUE;
+    for (int r = 0; r < RUNS; r++) {
+      long start = System.nanoTime();
+      parse(src);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best;
+  }
+
+  /* Best-of-RUNS wall time in nanoseconds for semantic analysis, and for lowering to IR and code generation when genCode is set. */
+  static long timeScopes(String src, boolean genCode) throws Exception {
+    PrintStream stdout = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    long best = Long.MAX_VALUE;
+    try {
+      for (int r = 0; r < RUNS; r++) {
+        parser p = parser(src);
+        int root = (Integer) p.parse().value;
+        long start = System.nanoTime();
+        SemanticAnalyzer analyzer = new SemanticAnalyzer(p.tree);
+        analyzer.insertBuiltins(p.tree.names);
+        p.tree.accept(root, analyzer, 0);
+        if (genCode) {
+          new TMCodeGen().generate(new IRGen(analyzer).lower(root));
+        }
+        best = Math.min(best, System.nanoTime() - start);
+      }
+    } finally {
+      System.setOut(stdout);
+    }
+    return best;
+  }
+
+  /* Best time of the code generation phase alone: lowering the analyzed program src to IR, which reads the
+     declaration records and frames of the analysis, and generating TM code from it. */
+  static long timeCodegen(String src) throws Exception {
+    PrintStream stdout = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    long best = Long.MAX_VALUE;
+    try {
+      for (int r = 0; r < RUNS; r++) {
+        parser p = parser(src);
+        int root = (Integer) p.parse().value;
+        SemanticAnalyzer analyzer = new SemanticAnalyzer(p.tree);
+        analyzer.insertBuiltins(p.tree.names);
+        p.tree.accept(root, analyzer, 0);
+        long start = System.nanoTime();
+        new TMCodeGen().generate(new IRGen(analyzer).lower(root));
+        best = Math.min(best, System.nanoTime() - start);
+      }
+    } finally {
+      System.setOut(stdout);
+    }
+    return best;
+  }
+
+  static TMBuffer compile(String src) throws Exception {
+    return compile(src, false);
+  }
+
+  /* Analyzes and compiles src with all output discarded, returning the code buffer; optimize as with -O. */
+  static TMBuffer compile(String src, boolean optimize) throws Exception {
+    PrintStream stdout = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    try {
+      parser p = parser(src);
+      int root = (Integer) p.parse().value;
+      SemanticAnalyzer analyzer = new SemanticAnalyzer(p.tree);
+      analyzer.insertBuiltins(p.tree.names);
+      p.tree.accept(root, analyzer, 0);
+      ConstantFolder folder = null;
+      if (optimize) {
+        folder = new ConstantFolder(analyzer);
+        p.tree.accept(root, folder, null);
+      }
+      Program program = new IRGen(analyzer, folder).lower(root);
+      if (optimize) {
+        new DeadCode().run(program);
+        new Inliner(Inliner.BUDGET).run(program);
+        new Loops().run(program);
+        new ValueNumbering().run(program);
+        new DeadCode().run(program);
+        new BoundsChecks().run(program);
+        new TailCalls().run(program);
+      }
+      TMCodeGen codegen = new TMCodeGen();
+      codegen.generate(program);
+      if (optimize) {
+        new Peephole().optimize(codegen.code);
+      }
+      return codegen.code;
+    } finally {
+      System.setOut(stdout);
+    }
+  }
+
+  /* Analyzes src and lowers it to IR with all output discarded. */
+  static Program lower(String src) throws Exception {
+    PrintStream stdout = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    try {
+      parser p = parser(src);
+      int root = (Integer) p.parse().value;
+      SemanticAnalyzer analyzer = new SemanticAnalyzer(p.tree);
+      analyzer.insertBuiltins(p.tree.names);
+      p.tree.accept(root, analyzer, 0);
+      return new IRGen(analyzer).lower(root);
+    } finally {
+      System.setOut(stdout);
+    }
+  }
+
+  /* Best-of-RUNS wall time in nanoseconds for loading fileName into a TMMachine. */
+  static long timeLoad(String fileName) throws Exception {
+    long best = Long.MAX_VALUE;
+    for (int r = 0; r < RUNS; r++) {
+      long start = System.nanoTime();
+      TMMachine.fromFile(fileName, TMMachine.DADDR_SIZE);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return best;
+  }
+
+  static void report(String what, int n, long nanos) {
+    System.out.printf("%-12s n=%7d  %9.2f ms  %8.1f ns/item%n", what, n, nanos / 1e6, (double) nanos / n);
+  }
+
+  static void parseBench() throws Exception {
+    timeParse(declarations(SIZES[SIZES.length - 1])); // warm up
+    for (int n : SIZES)
+      report("declarations", n, timeParse(declarations(n)));
+    for (int n : SIZES)
+      report("statements", n, timeParse(statements(n)));
+  }
+
+  /* Heap in use after collecting garbage, as closely as the runtime reports it. */
+  static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /* Heap in use at each step of compiling a program as CM -c does, per source line: the parser with its
+     Arena, then the analysis, the IR and the TM code added to it, with everything before still held as CM
+     holds it. The last column is what the absyn classes built from the Arena would add, the tree CM kept
+     for the whole compilation when the phases walked absyn. */
+  static void treeBench() throws Exception {
+    PrintStream stdout = System.out;
+    for (int n : SIZES) {
+      for (String kind : new String[] { "statements", "functions" }) {
+        String src = kind.equals("statements") ? statements(n) : functions(n / 10);
+        int lines = 0;
+        for (int i = 0; i < src.length(); i++) {
+          lines += src.charAt(i) == '\n' ? 1 : 0;
+        }
+        long base = usedHeap();
+        long start = System.nanoTime();
+        parser p = parser(src);
+        int root = (Integer) p.parse().value;
+        long parsed = System.nanoTime() - start;
+        long tree = usedHeap() - base;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        SemanticAnalyzer analyzer = new SemanticAnalyzer(p.tree);
+        analyzer.insertBuiltins(p.tree.names);
+        p.tree.accept(root, analyzer, 0);
+        System.setOut(stdout);
+        long analyzed = usedHeap() - base;
+        Program program = new IRGen(analyzer).lower(root);
+        long lowered = usedHeap() - base;
+        TMCodeGen codegen = new TMCodeGen();
+        codegen.generate(program);
+        long generated = usedHeap() - base;
+        Absyn absyn = p.tree.toAbsyn(root);
+        long objects = usedHeap() - base - generated;
+        System.out.printf("%-10s lines=%7d nodes=%8d  parse %6.1f  analyze %6.1f  IR %6.1f  TM %6.1f B/line"
+            + "  (absyn +%6.1f B/line)  parse %7.2f ms%n", kind, lines, p.tree.size(), tree / (double) lines,
+            analyzed / (double) lines, lowered / (double) lines, generated / (double) lines,
+            objects / (double) lines, parsed / 1e6);
+        Reference.reachabilityFence(analyzer);
+        Reference.reachabilityFence(codegen);
+        Reference.reachabilityFence(absyn);
+      }
+    }
+  }
+
+  static void scopeBench() throws Exception {
+    int[] sizes = { 1000, 2000, 4000, 8000 };
+    timeScopes(functions(sizes[sizes.length - 1]), true); // warm up
+    for (int n : sizes)
+      report("analyze fun", n, timeScopes(functions(n), false));
+    for (int n : sizes)
+      report("codegen fun", n, timeScopes(functions(n), true));
+    for (int n : sizes)
+      report("codegen only", n, timeCodegen(functions(n)));
+    for (int n : sizes)
+      report("nested gen", n, timeCodegen(nested(n)));
+    for (int n : sizes)
+      report("nested", n, timeScopes(nested(n), false));
+  }
+
+  static void loadBench() throws Exception {
+    int[] sizes = { 500, 1000, 2000, 4000 };
+    for (int n : sizes) {
+      // Every function called, and a library of which main uses a single function.
+      for (int called : new int[] { n, 1 }) {
+        TMBuffer code = compile(functions(n, called));
+        File text = File.createTempFile("bench", ".tm");
+        File object = File.createTempFile("bench", ".tmo");
+        text.deleteOnExit();
+        object.deleteOnExit();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(text))) {
+          code.writeText(out);
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(object))) {
+          TMObject.write(code, 0, TMMachine.DADDR_SIZE, false, out);
+        }
+        timeLoad(text.getPath()); // warm up
+        timeLoad(object.getPath());
+        System.out.printf("functions=%5d called=%5d  instructions=%7d  .tm %9d bytes %8.2f ms   .tmo %9d bytes %8.2f ms%n",
+            n, called, code.size, text.length(), timeLoad(text.getPath()) / 1e6, object.length(),
+            timeLoad(object.getPath()) / 1e6);
+      }
+    }
+  }
+
+  static void lexBench() throws Exception {
+    int[] megabytes = { 1, 4, 16 };
+    for (int mb : megabytes) {
+      File file = File.createTempFile("bench", ".cm");
+      file.deleteOnExit();
+      Files.write(file.toPath(), commented(mb << 20).getBytes());
+      String name = file.getPath();
+      double size = file.length() / (double) (1 << 20);
+      long reader = Long.MAX_VALUE, bulk = Long.MAX_VALUE, buffered = Long.MAX_VALUE;
+      long parsed = Long.MAX_VALUE, replayed = Long.MAX_VALUE;
+      TokenBuffer tokens = null;
+      for (int r = 0; r < RUNS; r++) {
+        long start = System.nanoTime();
+        lexAll(new Lexer(new FileReader(name)));
+        long read = System.nanoTime();
+        lexAll(new Lexer(Source.read(name)));
+        long mapped = System.nanoTime();
+        tokens = TokenBuffer.scan(Source.read(name), new Names());
+        long filled = System.nanoTime();
+        new parser(new Lexer(Source.read(name))).parse();
+        long direct = System.nanoTime();
+        new parser(tokens).parse();
+        long again = System.nanoTime();
+        reader = Math.min(reader, read - start);
+        bulk = Math.min(bulk, mapped - read);
+        buffered = Math.min(buffered, filled - mapped);
+        parsed = Math.min(parsed, direct - filled);
+        replayed = Math.min(replayed, again - direct);
+      }
+      System.out.printf("%5.1f MB %8d tokens  FileReader %6.1f MB/s  bulk %6.1f MB/s  TokenBuffer %6.1f MB/s"
+          + " %5.1f Mtokens/s  parse %6.1f MB/s  replay %6.1f MB/s%n", size, tokens.size, size / (reader / 1e9),
+          size / (bulk / 1e9), size / (buffered / 1e9), tokens.size / (buffered / 1e3), size / (parsed / 1e9),
+          size / (replayed / 1e9));
+    }
+  }
+
+  /* Runs the lexer to the end of its input, returning the number of tokens. */
+  static int lexAll(Lexer lexer) throws IOException {
+    int n = 0;
+    while (lexer.next_token() != null) {
+      n++;
+    }
+    return n;
+  }
+
+  static void sortBench() throws Exception {
+    int[] sizes = { 10, 100, 1000, 4000 };
+    for (boolean optimize : new boolean[] { false, true }) {
+      for (int n : sizes) {
+        sortRun(n, optimize);
+      }
+    }
+  }
+
+  /* Sorts n random numbers with sort(n), printing the instruction counts and whether the output is sorted. */
+  static void sortRun(int n, boolean optimize) throws Exception {
+    Random random = new Random(42);
+    TMBuffer code = compile(sort(n), optimize);
+    StringBuilder input = new StringBuilder(n * 6);
+    for (int i = 0; i < n; i++)
+      input.append(random.nextInt(100000)).append('\n');
+    TMMachine machine = TMMachine.fromBuffer(code, n + TMMachine.DADDR_SIZE);
+    ByteArrayOutputStream output = new ByteArrayOutputStream(n * 6);
+    int status = machine.run(new ByteArrayInputStream(input.toString().getBytes()), output);
+    String[] values = output.toString().trim().split("\n");
+    boolean sorted = status == TMMachine.HALTED && values.length == n;
+    for (int i = 1; sorted && i < n; i++)
+      sorted = Integer.parseInt(values[i - 1]) <= Integer.parseInt(values[i]);
+    System.out.printf("n=%5d %-3s static %5d  executed %12d  executed/n^2 %7.2f  %s%n", n, optimize ? "-O" : "",
+        code.size, machine.steps, (double) machine.steps / ((double) n * n),
+        sorted ? "sorted" : "NOT SORTED (" + TMMachine.STATUS[status] + ")");
+  }
+
+  static void countBench() throws Exception {
+    String[] programs = { "fac.cm", "gcd.cm", "sort.cm" };
+    String[] inputs = { "10", "36", "5 2 9 1 7 3 8 0 6 4" };
+    for (int i = 0; i < programs.length; i++) {
+      String src = new String(Files.readAllBytes(Paths.get(programs[i])));
+      for (boolean optimize : new boolean[] { false, true }) {
+        TMBuffer code = compile(src, optimize);
+        TMMachine machine = TMMachine.fromBuffer(code, TMMachine.DADDR_SIZE);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int status = machine.run(new ByteArrayInputStream(inputs[i].getBytes()), output);
+        System.out.printf("%-8s %-3s static %5d  executed %7d  %s -> %s%n", programs[i], optimize ? "-O" : "",
+            code.size, machine.steps, inputs[i],
+            status == TMMachine.HALTED ? output.toString().trim().replace('\n', ' ') : TMMachine.STATUS[status]);
+      }
+    }
+  }
+
+  static void flowBench() throws Exception {
+    int[] sizes = { 500, 1000, 2000, 4000 };
+    for (int pass = 0; pass < 2; pass++) { // the first pass warms up
+      for (int n : sizes) {
+        Function f = lower(branches(n)).lookup("main");
+        long graph = Long.MAX_VALUE, live = Long.MAX_VALUE, reach = Long.MAX_VALUE;
+        CFG cfg = null;
+        Dataflow liveness = null, reaching = null;
+        for (int r = 0; r < RUNS; r++) {
+          long start = System.nanoTime();
+          cfg = new CFG(f);
+          long built = System.nanoTime();
+          liveness = new Liveness(cfg);
+          long lived = System.nanoTime();
+          reaching = new ReachingDefinitions(cfg);
+          long reached = System.nanoTime();
+          graph = Math.min(graph, built - start);
+          live = Math.min(live, lived - built);
+          reach = Math.min(reach, reached - lived);
+        }
+        if (pass == 0) {
+          continue;
+        }
+        System.out.printf("blocks=%6d  cfg+dom %7.2f ms  liveness %7.2f ms (%4.1f visits/block, %4d bits)"
+            + "  reaching %7.2f ms (%4.1f visits/block, %4d bits)%n", cfg.blocks, graph / 1e6, live / 1e6,
+            (double) liveness.visits / cfg.blocks, liveness.bits, reach / 1e6, (double) reaching.visits / cfg.blocks,
+            reaching.bits);
+      }
+    }
+  }
+
+  static void inlineBench() throws Exception {
+    int[] sizes = { 100, 1000, 4000 };
+    for (int n : sizes) {
+      String src = helpers(n);
+      long best = Long.MAX_VALUE;
+      Inliner inliner = null;
+      for (int r = 0; r < RUNS; r++) {
+        Program program = lower(src);
+        new DeadCode().run(program);
+        inliner = new Inliner(Inliner.BUDGET);
+        long start = System.nanoTime();
+        inliner.run(program);
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      System.out.printf("functions=%5d  inlining %7.2f ms (%5.2f us/function)  %5d sites inlined  %5d kept%n", n,
+          best / 1e6, best / 1e3 / n, inliner.inlined, inliner.kept);
+      for (boolean optimize : new boolean[] { false, true }) {
+        TMBuffer code = compile(src, optimize);
+        TMMachine machine = TMMachine.fromBuffer(code, TMMachine.DADDR_SIZE);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int status = machine.run(new ByteArrayInputStream(new byte[0]), output);
+        System.out.printf("  %-3s static %7d  executed %9d  %s%n", optimize ? "-O" : "", code.size, machine.steps,
+            status == TMMachine.HALTED ? output.toString().trim() : TMMachine.STATUS[status]);
+      }
+    }
+  }
+
+  /* Counting down with an accumulator and finishing in another function: every call is in tail position. */
+  final static String TAIL = "int twice(int n, int unused) { return n + n; }\n"
+      + "int count(int n, int acc) { if (n == 0) return twice(acc, 0); return count(n - 1, acc + 1); }\n"
+      + "void main(void) { output(count(input(), 0)); }\n";
+
+  static void tailBench() throws Exception {
+    int[] depths = { 10, 100, 1000, 100000 };
+    for (boolean optimize : new boolean[] { false, true }) {
+      TMBuffer code = compile(TAIL, optimize);
+      for (int n : depths) {
+        TMMachine machine = TMMachine.fromBuffer(code, TMMachine.DADDR_SIZE);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int status = machine.run(new ByteArrayInputStream(String.valueOf(n).getBytes()), output);
+        System.out.printf("depth=%6d %-3s static %4d  executed %9d  executed/depth %6.2f  %s%n", n,
+            optimize ? "-O" : "", code.size, machine.steps, (double) machine.steps / n,
+            status == TMMachine.HALTED ? output.toString().trim().replace('\n', ' ') : TMMachine.STATUS[status]);
+      }
+    }
+  }
+}
@@ -15,6 +15,17 @@
     -a : Displays the abstract syntax tree (AST) of the source program.
     -s : Displays the semantic analyzer tree, illustrating scope and type information.
     -c : Generates and displays target assembly code for the TM machine.
+    -ir : Writes the three-address intermediate code the TM code is generated from.
+    -b : Writes the generated TM code as a binary .tmo object file.
+    -O : Folds and propagates constants before code generation, removes dead stores, unreachable code and
+         array bounds checks that cannot fail from the intermediate code, inlines small leaf functions,
+         rotates loops and hoists their invariant computations, computes repeated expressions once,
+         compiles calls in tail position to reuse the caller's frame, and runs the peephole optimizer
+         over the generated TM code, reporting what each pass did.
+    -inline=<n> : With -O, inlines leaf functions of at most n intermediate instructions (default 16, 0 turns
+         inlining off).
+    -run : Compiles the program and executes it on the built-in TM machine, reading input from stdin.
+           A .tm or .tmo file given with -run is loaded and executed directly.
 
   Example usage:
     java -classpath /usr/share/java/cup.jar:. CM -a 1.cm
@@ -25,11 +36,23 @@
 
 import java.io.*;
 import absyn.*;
+import ir.BoundsChecks;
+import ir.DeadCode;
+import ir.Inliner;
+import ir.Loops;
+import ir.Program;
+import ir.TailCalls;
+import ir.ValueNumbering;
 
 class CM {
   public static boolean SHOW_TREE = false;
   public static boolean SHOW_SEMATIC = false;
   public static boolean SHOW_GENERATE = false;
+  public static boolean RUN = false;
+  public static boolean WRITE_OBJECT = false;
+  public static boolean OPTIMIZE = false;
+  public static boolean SHOW_IR = false;
+  public static int INLINE_BUDGET = Inliner.BUDGET;
 
   static public void main(String argv[]) {
     /* Start the parser */
@@ -42,18 +65,32 @@ class CM {
           SHOW_SEMATIC = true;
         } else if (argv[i].equals("-c")) {
           SHOW_GENERATE = true;
+        } else if (argv[i].equals("-run")) {
+          RUN = true;
+        } else if (argv[i].equals("-b")) {
+          WRITE_OBJECT = true;
+        } else if (argv[i].equals("-O")) {
+          OPTIMIZE = true;
+        } else if (argv[i].equals("-ir")) {
+          SHOW_IR = true;
+        } else if (argv[i].startsWith("-inline=")) {
+          INLINE_BUDGET = Integer.parseInt(argv[i].substring("-inline=".length()));
         }
        else {
         inputFileName = argv[i]; // Assuming non-flag argument is the input file name
        }
-        if (!argv[i].equals("-a") && !argv[i].equals("-s") && !argv[i].equals("-c")) {
+        if (!argv[i].equals("-a") && !argv[i].equals("-s") && !argv[i].equals("-c") && !argv[i].equals("-run") && !argv[i].equals("-b") && !argv[i].equals("-O") && !argv[i].equals("-ir") && !argv[i].startsWith("-inline=")) {
           argv[0] = argv[i];
         }
       }
-      if (!SHOW_TREE && !SHOW_SEMATIC && !SHOW_GENERATE) {
+      boolean generate = SHOW_GENERATE || RUN || WRITE_OBJECT || SHOW_IR;
+      if (!SHOW_TREE && !SHOW_SEMATIC && !generate) {
         System.out.println("Please add the -a flag for the abstract syntax tree.");
         System.out.println("Please add the -s flag for the symantic analyzer tree.");
         System.out.println("Please add the -c flag to generate assembly code.");
+        System.out.println("Please add the -ir flag to write the intermediate code.");
+        System.out.println("Please add the -b flag to write a binary TM object.");
+        System.out.println("Please add the -run flag to execute the program.");
         return;
       }
 
@@ -62,16 +99,23 @@ class CM {
         return;
       }
 
-      parser p = new parser(new Lexer(new FileReader(argv[0])));
-      Absyn result = (Absyn) (p.parse().value);
-      if (SHOW_TREE && result != null) {
+      PrintStream stdout = System.out;
+      if (RUN && (argv[0].endsWith(".tm") || argv[0].endsWith(".tmo"))) {
+        execute(TMMachine.fromFile(argv[0], TMMachine.DADDR_SIZE), stdout);
+        return;
+      }
+
+      parser p = new parser(new Lexer(Source.read(argv[0])));
+      int root = (Integer) p.parse().value;
+      if (SHOW_TREE && root >= 0) {
         PrintStream out = new PrintStream(new FileOutputStream(argv[0].replace(".cm", "") + ".abs"));
         System.setOut(out);
         System.out.println("The abstract syntax tree is:");
         ShowTreeVisitor visitor = new ShowTreeVisitor();
-        result.accept(visitor, 0, false);
+        // The only use of the absyn classes; the phases below walk the Arena.
+        p.tree.toAbsyn(root).accept(visitor, 0, false);
       }
-      if (SHOW_SEMATIC && result != null) {
+      if (SHOW_SEMATIC && root >= 0) {
         System.out.flush();
         PrintStream out = new PrintStream(new FileOutputStream(argv[0].replace(".cm", "") + ".sym"));
         System.setOut(out);
@@ -79,28 +123,87 @@ class CM {
         PrintStream out =new PrintStream(new FileOutputStream("/dev/null"));
         System.setOut(out);
       }
-      if(SHOW_GENERATE && result != null || SHOW_SEMATIC && result != null){
+      SemanticAnalyzer visitor = new SemanticAnalyzer(p.tree);
+      if(generate && root >= 0 || SHOW_SEMATIC && root >= 0){
         System.out.println("The Semantic analyzer tree is:");
         System.out.println("Entering the global scope:");
-        SemanticAnalyzer visitor = new SemanticAnalyzer();
-        NodeType node = new NodeType("input", "(VOID) -> INT", 0, 0);
-        visitor.insert(node);
-        NodeType node2 = new NodeType("output", "(INT) -> VOID", 0, 0);
-        visitor.insert(node2);
-        result.accept(visitor, 0, false);
+        visitor.insertBuiltins(p.tree.names);
+        p.tree.accept(root, visitor, 0);
         visitor.printLevel(0);
         System.out.println("Leaving the global scope");
       }
-      if (SHOW_GENERATE && result != null) {
-        PrintStream out = new PrintStream(new FileOutputStream(argv[0].replace(".cm", "") + ".tm"));
-        System.setOut(out);
+      if (generate && root >= 0 && visitor.errors > 0) {
+        System.err.println("No code generated: " + visitor.errors + " semantic errors");
+      } else if (generate && root >= 0) {
+        ConstantFolder folder = null;
+        if (OPTIMIZE) {
+          folder = new ConstantFolder(visitor);
+          p.tree.accept(root, folder, null);
+          folder.report(System.err);
+        }
+        Program program = new IRGen(visitor, folder).lower(root);
+        if (OPTIMIZE) {
+          DeadCode deadCode = new DeadCode();
+          deadCode.run(program);
+          Inliner inliner = new Inliner(INLINE_BUDGET);
+          inliner.run(program);
+          inliner.report(System.err);
+          Loops loops = new Loops();
+          loops.run(program);
+          loops.report(System.err);
+          // After rotation, which expects the temporaries of a loop test to be its own.
+          ValueNumbering numbering = new ValueNumbering();
+          numbering.run(program);
+          numbering.report(System.err);
+          // Again for the loads whose users value numbering replaced.
+          deadCode.run(program);
+          deadCode.report(System.err);
+          BoundsChecks checks = new BoundsChecks();
+          checks.run(program);
+          checks.report(System.err);
+          TailCalls tailCalls = new TailCalls();
+          tailCalls.run(program);
+          tailCalls.report(System.err);
+        }
+        if (SHOW_IR) {
+          PrintStream out = new PrintStream(new FileOutputStream(argv[0].replace(".cm", "") + ".ir"));
+          out.print(program);
+          out.close();
+        }
         TMCodeGen visitor2 = new TMCodeGen();
         visitor2.emitComment("C-Minus Compilation to TM Code");
         visitor2.emitComment("File: " + argv[0].replace(".cm", "") + ".tm");
-        visitor2.visit(result, visitor2);
+        visitor2.generate(program);
+        if (OPTIMIZE) {
+          visitor2.report(System.err);
+          Peephole peephole = new Peephole();
+          peephole.optimize(visitor2.code);
+          peephole.report(System.err);
+        }
+        if (SHOW_GENERATE) {
+          OutputStream out = new BufferedOutputStream(new FileOutputStream(argv[0].replace(".cm", "") + ".tm"));
+          visitor2.code.writeText(out);
+          out.close();
+        }
+        if (WRITE_OBJECT) {
+          OutputStream out = new BufferedOutputStream(new FileOutputStream(argv[0].replace(".cm", "") + ".tmo"));
+          TMObject.write(visitor2.code, 0, TMMachine.DADDR_SIZE, true, out);
+          out.close();
+        }
+        if (RUN) {
+          execute(TMMachine.fromBuffer(visitor2.code, TMMachine.DADDR_SIZE), stdout);
+        }
       }
     } catch (Exception e) {
       e.printStackTrace();
     }
   }
+
+  /* Runs a loaded TM program on stdin/stdout and reports abnormal stops on stderr. */
+  static void execute(TMMachine machine, PrintStream stdout) throws IOException {
+    int status = machine.run(System.in, stdout);
+    if (status != TMMachine.HALTED) {
+      System.err.println("TM stopped: " + TMMachine.STATUS[status]);
+    }
+  }
 }
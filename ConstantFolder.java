@@ -0,0 +1,251 @@
+/*
+  File Name: ConstantFolder.java
+
+    Description: Optimization pass that runs between the SemanticAnalyzer and IRGen. Arithmetic and relational
+     MathExp subtrees with constant operands are folded to a constant, using the same int arithmetic as the TM
+      (wrap-around, division truncating toward zero). A division by a constant zero is left alone so that it still
+       stops the program at run time. Constants assigned to scalar locals are propagated to later uses in straight-line
+        code; the known values are merged after an if and forgotten around a loop body. Only the branch an if with a
+         constant test takes is followed, and a while whose test is constantly false is skipped. Names are not looked up
+          again: every variable is the declaration record the analyzer resolved it to, whose kind and size tell a scalar
+           local from a global or an array.
+     The Arena is walked as a Visitor and is not changed. Each visit returns the constant its expression folds to,
+      or null, and the constants are kept in a side table by the Arena index of the node, which IRGen reads to lower
+       a folded expression as its value, an if with a constant test as the branch it takes and a while with a
+        constant false test as nothing.
+*/
+
+import absyn.*;
+import ir.Var;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+public class ConstantFolder implements Visitor<Integer, Void> {
+
+    final SemanticAnalyzer analysis;
+    final Arena tree;
+    // Known values of scalar locals at the current point.
+    HashMap<NodeType, Integer> known = new HashMap<NodeType, Integer>();
+    // The constant of every number and folded expression, by the Arena index of its node.
+    boolean[] isConstant = new boolean[256];
+    int[] constant = new int[256];
+
+    public int folded, propagated, branches, loops;
+
+    public ConstantFolder(SemanticAnalyzer analysis) {
+        this.analysis = analysis;
+        this.tree = analysis.tree;
+    }
+
+    // True when the node at index folded to a constant.
+    public boolean isConstant(int index) {
+        return index >= 0 && index < isConstant.length && isConstant[index];
+    }
+
+    public int constant(int index) {
+        return constant[index];
+    }
+
+    // Folds the subtree at node, -1 for a missing one, and returns its constant, null when it has none.
+    private Integer fold(int node) {
+        return node < 0 ? null : tree.accept(node, this, null);
+    }
+
+    private Integer record(int node, int value) {
+        if (node >= isConstant.length) {
+            int length = Math.max(isConstant.length * 2, node + 1);
+            isConstant = Arrays.copyOf(isConstant, length);
+            constant = Arrays.copyOf(constant, length);
+        }
+        isConstant[node] = true;
+        constant[node] = value;
+        return value;
+    }
+
+    // A scalar local or parameter, the only variables whose values are tracked.
+    private NodeType trackedVar(int var) {
+        NodeType node = analysis.declOf(var);
+        if (node == null || tree.child(var, 0) >= 0 || node.size != 0
+                || (node.kind != Var.LOCAL && node.kind != Var.PARAM)) {
+            return null;
+        }
+        return node;
+    }
+
+    // Keeps only the values both paths agree on.
+    private void merge(HashMap<NodeType, Integer> other) {
+        Iterator<Map.Entry<NodeType, Integer>> it = known.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<NodeType, Integer> e = it.next();
+            if (!e.getValue().equals(other.get(e.getKey()))) {
+                it.remove();
+            }
+        }
+    }
+
+    public Integer visitList(int list, Void context) {
+        for (int cell = list; cell >= 0; cell = tree.child(cell, 1)) {
+            fold(tree.child(cell, 0));
+        }
+        return null;
+    }
+
+    public Integer visitAssign(int exp, Void context) {
+        return null;
+    }
+
+    public Integer visitIf(int exp, Void context) {
+        Integer test = fold(tree.child(exp, 0));
+        if (test != null) {
+            branches++;
+            fold(test != 0 ? tree.child(exp, 1) : tree.child(exp, 2));
+            return null;
+        }
+        HashMap<NodeType, Integer> before = new HashMap<NodeType, Integer>(known);
+        fold(tree.child(exp, 1));
+        HashMap<NodeType, Integer> afterThen = known;
+        known = before;
+        fold(tree.child(exp, 2));
+        merge(afterThen);
+        return null;
+    }
+
+    public Integer visitInt(int exp, Void context) {
+        String value = tree.name(exp);
+        return value == null ? null : record(exp, Integer.parseInt(value));
+    }
+
+    public Integer visitOp(int exp, Void context) {
+        return null;
+    }
+
+    public Integer visitRepeat(int exp, Void context) {
+        // Any value may change on the way round the loop.
+        known.clear();
+        Integer test = fold(tree.child(exp, 0));
+        if (test != null && test == 0) {
+            loops++;
+            return null;
+        }
+        fold(tree.child(exp, 1));
+        known.clear();
+        return null;
+    }
+
+    public Integer visitVar(int exp, Void context) {
+        fold(tree.child(exp, 0));
+        NodeType node = trackedVar(exp);
+        if (node != null && known.containsKey(node)) {
+            propagated++;
+            return record(exp, known.get(node));
+        }
+        return null;
+    }
+
+    public Integer visitType(int exp, Void context) {
+        return null;
+    }
+
+    public Integer visitFun(int exp, Void context) {
+        known.clear();
+        fold(tree.child(exp, 3));
+        known.clear();
+        return null;
+    }
+
+    public Integer visitParList(int exp, Void context) {
+        return null;
+    }
+
+    public Integer visitParam(int exp, Void context) {
+        return null;
+    }
+
+    public Integer visitComp(int exp, Void context) {
+        int target = tree.child(exp, 0);
+        if (target >= 0 && tree.kind(target) == Arena.VAR) {
+            fold(tree.child(target, 0));
+            Integer value = fold(tree.child(exp, 1));
+            NodeType node = trackedVar(target);
+            if (node != null) {
+                if (value != null) {
+                    known.put(node, value);
+                } else {
+                    known.remove(node);
+                }
+            }
+        }
+        return null;
+    }
+
+    public Integer visitReturn(int exp, Void context) {
+        fold(tree.child(exp, 0));
+        return null;
+    }
+
+    public Integer visitMath(int exp, Void context) {
+        Integer lhs = fold(tree.child(exp, 0));
+        Integer rhs = fold(tree.child(exp, 2));
+        int op = tree.child(exp, 1);
+        if (lhs == null || rhs == null || op < 0 || tree.kind(op) != Arena.OP) {
+            return null;
+        }
+        int a = lhs;
+        int b = rhs;
+        int v;
+        switch (tree.value(op)) {
+        case OpExp.PLUS:
+            v = a + b;
+            break;
+        case OpExp.MINUS:
+            v = a - b;
+            break;
+        case OpExp.TIMES:
+            v = a * b;
+            break;
+        case OpExp.OVER:
+            if (b == 0) {
+                return null; // fails at run time, as the program says
+            }
+            v = a / b;
+            break;
+        case OpExp.EQ:
+            v = a == b ? 1 : 0;
+            break;
+        case OpExp.NEQ:
+            v = a != b ? 1 : 0;
+            break;
+        case OpExp.LT:
+            v = a < b ? 1 : 0;
+            break;
+        case OpExp.LE:
+            v = a <= b ? 1 : 0;
+            break;
+        case OpExp.GT:
+            v = a > b ? 1 : 0;
+            break;
+        case OpExp.GE:
+            v = a >= b ? 1 : 0;
+            break;
+        default:
+            return null;
+        }
+        folded++;
+        return record(exp, v);
+    }
+
+    public Integer visitCall(int exp, Void context) {
+        for (int args = tree.child(exp, 1); args >= 0; args = tree.child(args, 1)) {
+            fold(tree.child(args, 0));
+        }
+        return null;
+    }
+
+    public void report(PrintStream out) {
+        out.println("Constant folding: " + folded + " expressions folded, " + propagated + " constants propagated, "
+                + branches + " constant branches and " + loops + " dead loops removed");
+    }
+}
@@ -0,0 +1,50 @@
+/*
+  File Name: Frame.java
+
+  Description: The frame layout of one function, fixed by the semantic analyzer: the old fp at 0, the return
+    address at -1, the parameters from -2 down and then the locals in declaration order. A local lives only
+    while its block is open, so when a block closes its slots are handed out again: the locals of sibling
+    blocks, such as the then and else parts of an if or two loops in a row, share slots. size is the most
+    slots in use at once, the fixed size of the frame. Locals of one block get slots of their own here; the
+    code generator lays them out again by live range (ir.FrameLayout) when that makes the frame smaller.
+*/
+import ir.Var;
+import java.util.ArrayList;
+
+public class Frame {
+  public final NodeType function;
+  public final ArrayList<NodeType> params = new ArrayList<NodeType>();
+  public final ArrayList<NodeType> locals = new ArrayList<NodeType>();
+  public int size = 2;
+  private int top = 2; // next free slot
+
+  public Frame(NodeType function) {
+    this.function = function;
+  }
+
+  public int vars() {
+    return params.size() + locals.size();
+  }
+
+  /* Lays out a parameter or local record at the next free slot. */
+  public void add(NodeType node) {
+    node.offset = -top;
+    node.index = vars();
+    if (node.kind == Var.PARAM) {
+      params.add(node);
+    } else {
+      locals.add(node);
+    }
+    top += node.slots();
+    size = Math.max(size, top);
+  }
+
+  /* The slots in use when a block opens, to be given back by release when it closes. */
+  public int mark() {
+    return top;
+  }
+
+  public void release(int mark) {
+    top = mark;
+  }
+}
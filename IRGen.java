@@ -0,0 +1,529 @@
+/*
+  File Name: IRGen.java
+
+  Description: Lowers the Arena syntax tree into the three-address IR of package ir, one ir.Function per function
+    definition. Variables and their global or frame offsets come from the declaration records and frame layouts
+    of the SemanticAnalyzer, which has already resolved every name, so lowering does no lookups and parses no
+    sizes. Every expression value is a fresh temporary.
+    Operands are lowered in Sethi-Ullman order, so the backend needs as few registers as possible: the operand needing
+    more registers goes first. Operands that assign a variable, and a call next to an operand it could change, as
+    in g - f() with a global g, are lowered left to right instead, the order C Minus evaluates them in. Arguments
+    are lowered left to right, and their ARG instructions come right before the CALL. An if or while test becomes
+    a conditional jump on the difference of its operands, taken when the test is false.
+    Under -O the constants of the ConstantFolder are read from its side table: a folded expression is lowered as
+    its value, an if with a constant test as the branch it takes, and a while whose test is constantly false not
+    at all. The Arena is walked as a Visitor and is only read: each visit returns the temporary it lowered to.
+*/
+
+import absyn.*;
+import ir.*;
+
+public class IRGen implements Visitor<Integer, IRGen.Use> {
+
+    Program program = new Program();
+    Function fn; // function being lowered, null at the global level
+    final SemanticAnalyzer analysis;
+    final Arena tree;
+    final ConstantFolder folder; // null without -O
+    final Var[] vars; // IR variable of every declaration record, by NodeType.number
+    // Register need of a subtree holding a call, which clobbers every register.
+    final static int CALL_NEED = 100;
+
+    // What a visit is asked for: the value of an expression, the address of an array element, or only
+    // the effect of a statement. A visit returns the temporary holding what was asked for, or -1.
+    enum Use { VALUE, ADDRESS, EFFECT }
+
+    public IRGen(SemanticAnalyzer analysis) {
+        this(analysis, null);
+    }
+
+    public IRGen(SemanticAnalyzer analysis, ConstantFolder folder) {
+        this.analysis = analysis;
+        this.tree = analysis.tree;
+        this.folder = folder;
+        vars = new Var[analysis.variables()];
+    }
+
+    public Program lower(int root) {
+        for (NodeType global : analysis.globals()) {
+            program.globals.add(variable(global));
+        }
+        program.globalSize = analysis.globalSize();
+        lowerBlock(root);
+        return program;
+    }
+
+    private Var variable(NodeType node) {
+        Var var = node.toVar();
+        vars[node.number] = var;
+        return var;
+    }
+
+    private Instr emit(int op) {
+        return fn.emit(new Instr(op));
+    }
+
+    // Gives instr a fresh destination temporary and returns it.
+    private int def(Instr instr) {
+        instr.dst = fn.newTemp();
+        return instr.dst;
+    }
+
+    private int constant(int value) {
+        Instr instr = emit(Instr.CONST);
+        instr.imm = value;
+        return def(instr);
+    }
+
+    private int binary(int op, int a, int b) {
+        Instr instr = emit(op);
+        instr.a = a;
+        instr.b = b;
+        return def(instr);
+    }
+
+    private void jump(int op, int rel, int a, int label) {
+        Instr instr = emit(op);
+        instr.imm = rel;
+        instr.a = a;
+        instr.label = label;
+    }
+
+    private void label(int label) {
+        emit(Instr.LABEL).label = label;
+    }
+
+    // The variable name was resolved to, null for an undefined name or a function.
+    private Var lookupVar(int name) {
+        NodeType node = analysis.declOf(name);
+        return node == null || !node.isVariable() ? null : vars[node.number];
+    }
+
+    private boolean is(int node, int kind) {
+        return node >= 0 && tree.kind(node) == kind;
+    }
+
+    // The value of a number, or of an expression the folder reduced to a constant; null for anything else.
+    private Integer constantOf(int exp) {
+        if (is(exp, Arena.INT)) {
+            String value = tree.name(exp);
+            return value == null ? null : Integer.valueOf(value);
+        }
+        return folder != null && folder.isConstant(exp) ? folder.constant(exp) : null;
+    }
+
+    // The constant value of an if or while test, when the folder found one; null otherwise or without -O.
+    private Integer constantTest(int test) {
+        return folder == null ? null : constantOf(test);
+    }
+
+    // Number of registers needed to evaluate exp without spilling (Sethi-Ullman labelling).
+    private int need(int exp) {
+        if (constantOf(exp) != null) {
+            return 1;
+        } else if (is(exp, Arena.CALL)) {
+            return CALL_NEED;
+        } else if (is(exp, Arena.VAR)) {
+            int index = tree.child(exp, 0);
+            return index < 0 ? 1 : need(index);
+        } else if (is(exp, Arena.MATH)) {
+            return need(tree.child(exp, 0), tree.child(exp, 2));
+        } else if (is(exp, Arena.COMP)) {
+            int first = tree.child(exp, 0);
+            int second = tree.child(exp, 1);
+            if (is(first, Arena.VAR) && tree.child(first, 0) >= 0) {
+                return need(tree.child(first, 0), second);
+            }
+            return second < 0 ? 1 : need(second);
+        }
+        return 1;
+    }
+
+    private int need(int left, int right) {
+        int l = need(left);
+        int r = need(right);
+        if (l >= CALL_NEED || r >= CALL_NEED) {
+            return CALL_NEED;
+        }
+        return l == r ? l + 1 : Math.max(l, r);
+    }
+
+    private static int relation(int op) {
+        switch (op) {
+        case OpExp.EQ:
+            return Instr.EQ;
+        case OpExp.NEQ:
+            return Instr.NE;
+        case OpExp.LT:
+            return Instr.LT;
+        case OpExp.LE:
+            return Instr.LE;
+        case OpExp.GT:
+            return Instr.GT;
+        case OpExp.GE:
+            return Instr.GE;
+        default:
+            return -1;
+        }
+    }
+
+    private static int arithmetic(int op) {
+        switch (op) {
+        case OpExp.PLUS:
+            return Instr.ADD;
+        case OpExp.MINUS:
+            return Instr.SUB;
+        case OpExp.TIMES:
+            return Instr.MUL;
+        case OpExp.OVER:
+            return Instr.DIV;
+        default:
+            return -1;
+        }
+    }
+
+    // The operator of a MATH node.
+    private int opOf(int math) {
+        int op = tree.child(math, 1);
+        return is(op, Arena.OP) ? tree.value(op) : OpExp.ERROR;
+    }
+
+    private boolean isConstantIndex(Var var, int index) {
+        Integer i = constantOf(index);
+        return i != null && !var.isArrayParam() && i >= 0 && i < var.size;
+    }
+
+    // Lowers exp and returns the temporary holding its value.
+    private int lowerExp(int exp) {
+        Integer value = constantOf(exp);
+        if (value != null) {
+            return constant(value);
+        }
+        int t = exp < 0 ? -1 : tree.accept(exp, this, Use.VALUE);
+        // Anything without a value is only left behind by syntax errors.
+        return t >= 0 ? t : constant(0);
+    }
+
+    private boolean hasCall(int exp) {
+        if (is(exp, Arena.CALL)) {
+            return true;
+        } else if (is(exp, Arena.COMP)) {
+            return hasCall(tree.child(exp, 0)) || hasCall(tree.child(exp, 1));
+        } else if (is(exp, Arena.VAR)) {
+            return hasCall(tree.child(exp, 0));
+        } else if (is(exp, Arena.MATH)) {
+            return hasCall(tree.child(exp, 0)) || hasCall(tree.child(exp, 2));
+        }
+        return false;
+    }
+
+    private boolean hasAssignment(int exp) {
+        if (is(exp, Arena.COMP)) {
+            return true;
+        } else if (is(exp, Arena.VAR)) {
+            return hasAssignment(tree.child(exp, 0));
+        } else if (is(exp, Arena.MATH)) {
+            return hasAssignment(tree.child(exp, 0)) || hasAssignment(tree.child(exp, 2));
+        } else if (is(exp, Arena.CALL)) {
+            for (int args = tree.child(exp, 1); args >= 0; args = tree.child(args, 1)) {
+                if (hasAssignment(tree.child(args, 0))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // True when exp reads only constants and scalar locals and parameters, which no call can change.
+    private boolean isPrivate(int exp) {
+        if (constantOf(exp) != null) {
+            return true;
+        } else if (is(exp, Arena.VAR)) {
+            NodeType node = analysis.declOf(exp);
+            return tree.child(exp, 0) < 0 && node != null && node.size == 0
+                    && (node.kind == Var.LOCAL || node.kind == Var.PARAM);
+        } else if (is(exp, Arena.MATH)) {
+            return isPrivate(tree.child(exp, 0)) && isPrivate(tree.child(exp, 2));
+        }
+        return false;
+    }
+
+    // Whether right may be lowered before left: when that saves registers and cannot change what either computes.
+    // Neither may assign a variable, and calls in right may only move ahead of a left no call can change.
+    // Otherwise operands are lowered left to right, as C Minus evaluates them.
+    private boolean rightFirst(int left, int right) {
+        if (need(left) >= need(right) || hasAssignment(left) || hasAssignment(right)) {
+            return false;
+        }
+        return !hasCall(right) || isPrivate(left);
+    }
+
+    // Lowers both operands, the one needing more registers first, and returns their temporaries as {left, right}.
+    private int[] lowerOperands(int left, int right) {
+        if (!rightFirst(left, right)) {
+            int l = lowerExp(left);
+            return new int[] { l, lowerExp(right) };
+        }
+        int r = lowerExp(right);
+        return new int[] { lowerExp(left), r };
+    }
+
+    private int lowerMath(int exp) {
+        int[] t = lowerOperands(tree.child(exp, 0), tree.child(exp, 2));
+        int op = opOf(exp);
+        int rel = relation(op);
+        if (rel >= 0) {
+            int diff = binary(Instr.SUB, t[0], t[1]);
+            Instr set = emit(Instr.SET);
+            set.a = diff;
+            set.imm = rel;
+            return def(set);
+        }
+        int arith = arithmetic(op);
+        return binary(arith >= 0 ? arith : Instr.ADD, t[0], t[1]);
+    }
+
+    /* Loads a variable. An unindexed array yields the address of element 0; an indexed element is
+       bounds checked and reached through that address, and isAddr asks for the element's address. */
+    private int lowerVar(int exp, boolean isAddr) {
+        Var var = lookupVar(exp);
+        if (var == null) {
+            return constant(0);
+        }
+        int subscript = tree.child(exp, 0);
+        if (subscript < 0) {
+            if (var.isArray() && !var.isArrayParam()) {
+                Instr addr = emit(Instr.ADDR);
+                addr.var = var;
+                return def(addr);
+            }
+            Instr load = emit(Instr.LOAD);
+            load.var = var;
+            return def(load);
+        }
+        if (!var.isArray()) {
+            // The analyzer reports this, and no code is generated for a program with errors.
+            throw new IllegalStateException("internal error: " + var.name + " is indexed but is not an array");
+        }
+        if (!isAddr && isConstantIndex(var, subscript)) {
+            // A constant index into a local or global array is just a displacement.
+            Instr load = emit(Instr.LOAD);
+            load.var = var;
+            load.imm = constantOf(subscript);
+            return def(load);
+        }
+        int index = lowerExp(subscript);
+        Instr check = emit(Instr.CHECK);
+        check.a = index;
+        check.imm = var.size;
+        Instr base = emit(var.isArrayParam() ? Instr.LOAD : Instr.ADDR);
+        base.var = var;
+        int addr = binary(Instr.SUB, def(base), index);
+        if (isAddr) {
+            return addr;
+        }
+        Instr load = emit(Instr.LOADI);
+        load.a = addr;
+        return def(load);
+    }
+
+    // Lowers an assignment and returns the temporary holding the assigned value.
+    private int lowerAssign(int exp) {
+        int target = tree.child(exp, 0);
+        int second = tree.child(exp, 1);
+        if (!is(target, Arena.VAR) || second < 0) {
+            return constant(0);
+        }
+        Var var = lookupVar(target);
+        int subscript = tree.child(target, 0);
+        if (var == null || (subscript < 0 && var.isArray())) {
+            return lowerExp(second);
+        }
+        if (subscript < 0 || isConstantIndex(var, subscript)) {
+            int value = lowerExp(second);
+            Instr store = emit(Instr.STORE);
+            store.var = var;
+            store.a = value;
+            if (subscript >= 0) {
+                store.imm = constantOf(subscript);
+            }
+            return value;
+        }
+        int addr, value;
+        if (!rightFirst(subscript, second)) {
+            addr = lowerVar(target, true);
+            value = lowerExp(second);
+        } else {
+            value = lowerExp(second);
+            addr = lowerVar(target, true);
+        }
+        Instr store = emit(Instr.STOREI);
+        store.a = addr;
+        store.b = value;
+        return value;
+    }
+
+    // Lowers the arguments left to right, then passes them and calls; returns the result temporary or -1.
+    private int lowerCall(int exp, boolean value) {
+        int n = 0;
+        for (int args = tree.child(exp, 1); args >= 0; args = tree.child(args, 1)) {
+            if (tree.child(args, 0) >= 0) {
+                n++;
+            }
+        }
+        int[] temps = new int[n];
+        int i = 0;
+        for (int args = tree.child(exp, 1); args >= 0; args = tree.child(args, 1)) {
+            if (tree.child(args, 0) >= 0) {
+                temps[i++] = lowerExp(tree.child(args, 0));
+            }
+        }
+        for (i = 0; i < n; i++) {
+            Instr arg = emit(Instr.ARG);
+            arg.imm = i;
+            arg.a = temps[i];
+        }
+        int name = tree.child(exp, 0);
+        Instr call = emit(Instr.CALL);
+        call.function = analysis.declOf(name).index;
+        call.callee = tree.name(name);
+        return value ? def(call) : -1;
+    }
+
+    // Jumps to label when test is false.
+    private void branchIfFalse(int test, int label) {
+        if (is(test, Arena.MATH) && constantOf(test) == null && relation(opOf(test)) >= 0) {
+            int[] t = lowerOperands(tree.child(test, 0), tree.child(test, 2));
+            int diff = binary(Instr.SUB, t[0], t[1]);
+            jump(Instr.JCOND, Instr.negate(relation(opOf(test))), diff, label);
+        } else {
+            jump(Instr.JCOND, Instr.EQ, lowerExp(test), label);
+        }
+    }
+
+    private void lowerBlock(int block) {
+        if (block >= 0) {
+            tree.accept(block, this, Use.EFFECT);
+        }
+    }
+
+    public Integer visitList(int list, Use use) {
+        for (int cell = list; cell >= 0; cell = tree.child(cell, 1)) {
+            int head = tree.child(cell, 0);
+            // A constant statement has no effect.
+            if (head >= 0 && constantOf(head) == null) {
+                tree.accept(head, this, Use.EFFECT);
+            }
+        }
+        return -1;
+    }
+
+    // Declarations were laid out by the analysis.
+    public Integer visitAssign(int exp, Use use) {
+        return -1;
+    }
+
+    public Integer visitIf(int exp, Use use) {
+        int thenPart = tree.child(exp, 1);
+        int elsePart = tree.child(exp, 2);
+        Integer test = constantTest(tree.child(exp, 0));
+        if (test != null) {
+            lowerBlock(test != 0 ? thenPart : elsePart);
+            return -1;
+        }
+        int elseLabel = fn.newLabel();
+        branchIfFalse(tree.child(exp, 0), elseLabel);
+        lowerBlock(thenPart);
+        if (elsePart >= 0) {
+            int endLabel = fn.newLabel();
+            jump(Instr.JUMP, 0, -1, endLabel);
+            label(elseLabel);
+            lowerBlock(elsePart);
+            label(endLabel);
+        } else {
+            label(elseLabel);
+        }
+        return -1;
+    }
+
+    public Integer visitInt(int exp, Use use) {
+        return use == Use.EFFECT ? -1 : constant(Integer.parseInt(tree.name(exp)));
+    }
+
+    public Integer visitOp(int exp, Use use) {
+        return -1;
+    }
+
+    public Integer visitRepeat(int exp, Use use) {
+        Integer test = constantTest(tree.child(exp, 0));
+        if (test != null && test == 0) {
+            return -1;
+        }
+        int top = fn.newLabel();
+        int end = fn.newLabel();
+        label(top);
+        branchIfFalse(tree.child(exp, 0), end);
+        lowerBlock(tree.child(exp, 1));
+        jump(Instr.JUMP, 0, -1, top);
+        label(end);
+        return -1;
+    }
+
+    public Integer visitVar(int exp, Use use) {
+        return lowerVar(exp, use == Use.ADDRESS);
+    }
+
+    public Integer visitType(int exp, Use use) {
+        return -1;
+    }
+
+    public Integer visitFun(int exp, Use use) {
+        int typeSpec = tree.child(exp, 0);
+        boolean returnsValue = is(typeSpec, Arena.TYPE) && tree.value(typeSpec) == TypeExp.INT;
+        fn = new Function(tree.name(tree.child(exp, 1)), returnsValue);
+        program.add(fn);
+        Frame frame = analysis.frameOf(exp);
+        for (NodeType param : frame.params) {
+            fn.params.add(variable(param));
+        }
+        for (NodeType local : frame.locals) {
+            fn.locals.add(variable(local));
+        }
+        fn.frameSize = frame.size;
+        lowerBlock(tree.child(exp, 3));
+        if (fn.code.isEmpty() || fn.code.get(fn.code.size() - 1).op != Instr.RET) {
+            emit(Instr.RET);
+        }
+        fn = null;
+        return -1;
+    }
+
+    public Integer visitParList(int exp, Use use) {
+        return -1;
+    }
+
+    public Integer visitParam(int exp, Use use) {
+        return -1;
+    }
+
+    public Integer visitComp(int exp, Use use) {
+        return lowerAssign(exp);
+    }
+
+    public Integer visitReturn(int exp, Use use) {
+        Instr ret = new Instr(Instr.RET);
+        if (tree.child(exp, 0) >= 0) {
+            ret.a = lowerExp(tree.child(exp, 0));
+        }
+        fn.emit(ret);
+        return -1;
+    }
+
+    public Integer visitMath(int exp, Use use) {
+        return lowerMath(exp);
+    }
+
+    public Integer visitCall(int exp, Use use) {
+        return lowerCall(exp, use != Use.EFFECT);
+    }
+}
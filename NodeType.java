@@ -1,17 +1,57 @@
 /*
   Created by: Alireza Sharif & Pedram Mirmiran
   File Name: NodeType.java
+
+  Description: The declaration record the semantic analyzer makes for every variable, parameter and function.
+    Besides the type and scope it holds the storage the declaration gets: its kind, its global or frame
+    offset, its size as ir.Var counts it and its position among the globals or the parameters and locals of
+    its function, so code generation reads the layout from here instead of working it out again. A function's
+    position is its index among the functions of the ir.Program, or Program.INPUT or OUTPUT for a routine.
 */
+import absyn.Type;
+import ir.Var;
+
 public class NodeType {
+  public final static int FUNCTION = 3; // beside Var.GLOBAL, Var.PARAM and Var.LOCAL
+
   public String name;
+  public int id;             // id of name in the Names pool of the parse
   public String def;
+  public Type type;
   public int level;
   public int offset;
+  public NodeType shadowed;  // entry with the same name in an enclosing scope
+  public int kind = FUNCTION;
+  public int size;           // 0 for a scalar, the length of an array, -1 for an array parameter
+  public int index;          // position among the globals, the parameters and then locals, or the functions
+  public int number = -1;    // dense number of a variable among all those of the analysis
 
-  public NodeType(String name, String def, int level, int offset) {
+  public NodeType(String name, int id, String def, int level, int offset) {
     this.name = name;
+    this.id = id;
     this.def = def;
     this.level = level;
     this.offset = offset;
   }
-}
\ No newline at end of file
+
+  public NodeType(String name, int id, Type type, int level, int offset) {
+    this(name, id, type.toString(), level, offset);
+    this.type = type;
+  }
+
+  /* Frame or data slots the variable occupies. */
+  public int slots() {
+    return size > 0 ? size : 1;
+  }
+
+  public boolean isVariable() {
+    return kind != FUNCTION;
+  }
+
+  /* The IR variable for this declaration. */
+  public Var toVar() {
+    Var var = new Var(name, kind, offset, size);
+    var.index = index;
+    return var;
+  }
+}
@@ -0,0 +1,316 @@
+/*
+  File Name: Peephole.java
+
+  Description: Peephole optimizer for the TM code held in a TMBuffer. Each rule in the rule table looks at a
+    window of consecutive live instructions and either rewrites or deletes some of them. A window never extends
+    over a branch target, so code reached by a jump is only rewritten when the jump itself is. Deletions are
+    marked first and the buffer is compacted at the end of each pass: every pc-relative reference (jumps, calls
+    and the return addresses computed with LDA ac,1(pc)) and every comment line is relocated to the new
+    addresses. Passes repeat until no rule fires.
+*/
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+public class Peephole {
+  final static int PC = 7;
+  final static int MAX_PASSES = 32;
+
+  /* A rewrite rule over a window of width consecutive live instructions. */
+  abstract static class Rule {
+    final String name;
+    final int width;
+    int hits;
+
+    Rule(String name, int width) {
+      this.name = name;
+      this.width = width;
+    }
+
+    /* Tries the rule on the instruction addresses in w; returns true when it changed the code. */
+    abstract boolean apply(Peephole p, int[] w);
+  }
+
+  final Rule[] rules = {
+    // Jx r,d(pc) whose target is an unconditional jump goes straight to that jump's target.
+    new Rule("jump to jump", 1) {
+      boolean apply(Peephole p, int[] w) {
+        int loc = w[0];
+        if (!p.isJump(loc)) {
+          return false;
+        }
+        int target = p.nextLive(p.target(loc));
+        if (target == loc || target >= p.code.size || !p.isGoto(target) || p.target(target) == p.target(loc)) {
+          return false;
+        }
+        p.retarget(loc, p.target(target));
+        return true;
+      }
+    },
+    // A jump to the instruction that follows anyway, including LDA 7,0(7).
+    new Rule("jump to next", 1) {
+      boolean apply(Peephole p, int[] w) {
+        int loc = w[0];
+        if (!p.isJump(loc) || p.nextLive(p.target(loc)) != p.nextLive(loc + 1)) {
+          return false;
+        }
+        p.delete(loc);
+        return true;
+      }
+    },
+    // LDA r,0(r) moves a register onto itself.
+    new Rule("self move", 1) {
+      boolean apply(Peephole p, int[] w) {
+        TMBuffer c = p.code;
+        int loc = w[0];
+        if (c.op[loc] != TMBuffer.LDA || c.r[loc] == PC || c.s[loc] != c.r[loc] || c.d[loc] != 0) {
+          return false;
+        }
+        p.delete(loc);
+        return true;
+      }
+    },
+    // ST r,k(b) then LD r,k(b): r still holds the value.
+    new Rule("store then load", 2) {
+      boolean apply(Peephole p, int[] w) {
+        TMBuffer c = p.code;
+        int st = w[0], ld = w[1];
+        if (c.op[st] != TMBuffer.ST || c.op[ld] != TMBuffer.LD || c.r[ld] == PC || c.s[st] == PC
+            || c.d[st] != c.d[ld] || c.s[st] != c.s[ld]) {
+          return false;
+        }
+        if (c.r[st] == c.r[ld]) {
+          p.delete(ld);
+        } else {
+          c.op[ld] = TMBuffer.LDA;
+          c.s[ld] = c.r[st];
+          c.d[ld] = 0;
+        }
+        return true;
+      }
+    },
+    // LDA x,0(y) then LDA y,0(x): y already holds the value.
+    new Rule("copy back", 2) {
+      boolean apply(Peephole p, int[] w) {
+        TMBuffer c = p.code;
+        int a = w[0], b = w[1];
+        if (c.op[a] != TMBuffer.LDA || c.op[b] != TMBuffer.LDA || c.d[a] != 0 || c.d[b] != 0 || c.r[a] == PC
+            || c.r[b] == PC || c.s[a] != c.r[b] || c.s[b] != c.r[a]) {
+          return false;
+        }
+        p.delete(b);
+        return true;
+      }
+    },
+    // A register load whose value the next instruction overwrites without reading it.
+    new Rule("overwritten load", 2) {
+      boolean apply(Peephole p, int[] w) {
+        TMBuffer c = p.code;
+        int a = w[0], b = w[1];
+        int o = c.op[a];
+        if ((o != TMBuffer.LD && o != TMBuffer.LDA && o != TMBuffer.LDC) || c.r[a] == PC) {
+          return false;
+        }
+        int reg = c.r[a];
+        if (p.writes(b) != reg || p.reads(b, reg)) {
+          return false;
+        }
+        p.delete(a);
+        return true;
+      }
+    },
+    // Code after an unconditional jump or HALT that no jump reaches.
+    new Rule("unreachable", 2) {
+      boolean apply(Peephole p, int[] w) {
+        int a = w[0];
+        if (p.code.op[a] != TMBuffer.HALT && p.writes(a) != PC) {
+          return false;
+        }
+        p.delete(w[1]);
+        return true;
+      }
+    },
+  };
+
+  TMBuffer code;
+  boolean[] deleted;
+  boolean[] label;
+  public int before, after;
+
+  public static boolean isRelative(TMBuffer code, int loc) {
+    int o = code.op[loc];
+    return o != TMBuffer.EMPTY && !TMBuffer.isRO(o) && o != TMBuffer.LDC && code.s[loc] == PC;
+  }
+
+  /* Address an instruction with a pc-relative operand refers to. */
+  int target(int loc) {
+    return loc + 1 + code.d[loc];
+  }
+
+  /* A conditional or unconditional pc-relative jump. */
+  boolean isJump(int loc) {
+    int o = code.op[loc];
+    return isRelative(code, loc) && (o >= TMBuffer.JLT || (o == TMBuffer.LDA && code.r[loc] == PC));
+  }
+
+  boolean isGoto(int loc) {
+    return code.op[loc] == TMBuffer.LDA && code.r[loc] == PC && code.s[loc] == PC;
+  }
+
+  /* Register written by the instruction at loc, or -1. */
+  int writes(int loc) {
+    int o = code.op[loc];
+    if (o == TMBuffer.EMPTY || o == TMBuffer.HALT || o == TMBuffer.OUT || o == TMBuffer.ST || o >= TMBuffer.JLT) {
+      return -1;
+    }
+    return code.r[loc];
+  }
+
+  boolean reads(int loc, int reg) {
+    int o = code.op[loc];
+    if (o == TMBuffer.EMPTY) {
+      return true;
+    }
+    if (o == TMBuffer.HALT || o == TMBuffer.IN || o == TMBuffer.LDC) {
+      return false;
+    }
+    if (o == TMBuffer.OUT) {
+      return code.r[loc] == reg;
+    }
+    if (TMBuffer.isRO(o)) {
+      return code.s[loc] == reg || code.t[loc] == reg;
+    }
+    if (o == TMBuffer.ST || o >= TMBuffer.JLT) {
+      return code.r[loc] == reg || code.s[loc] == reg;
+    }
+    return code.s[loc] == reg;
+  }
+
+  int nextLive(int loc) {
+    while (loc >= 0 && loc < code.size && deleted[loc]) {
+      loc++;
+    }
+    return loc;
+  }
+
+  /* Points the pc-relative operand at loc to address t, which becomes a branch target. */
+  void retarget(int loc, int t) {
+    code.d[loc] = t - (loc + 1);
+    if (t >= 0 && t <= code.size) {
+      label[t] = true;
+    }
+  }
+
+  /* Marks an instruction deleted; jumps that reached it now reach the next live one. */
+  void delete(int loc) {
+    deleted[loc] = true;
+    if (label[loc]) {
+      int next = nextLive(loc);
+      if (next < code.size) {
+        label[next] = true;
+      }
+    }
+  }
+
+  public void optimize(TMBuffer code) {
+    this.code = code;
+    before = code.size;
+    int passes = 0;
+    while (passes < MAX_PASSES && pass()) {
+      passes++;
+    }
+    after = code.size;
+  }
+
+  /* One sweep of the rule table over the buffer followed by compaction; returns true when anything changed. */
+  boolean pass() {
+    int n = code.size;
+    deleted = new boolean[n];
+    label = new boolean[n + 1];
+    for (int loc = 0; loc < n; loc++) {
+      if (isRelative(code, loc)) {
+        int t = target(loc);
+        if (t >= 0 && t <= n) {
+          label[t] = true;
+        }
+      }
+    }
+
+    boolean changed = false;
+    int[] w = new int[2];
+    for (Rule rule : rules) {
+      for (int loc = 0; loc < n; loc++) {
+        if (deleted[loc] || code.op[loc] == TMBuffer.EMPTY || !window(loc, rule.width, w)) {
+          continue;
+        }
+        if (rule.apply(this, w)) {
+          rule.hits++;
+          changed = true;
+        }
+      }
+    }
+    compact();
+    return changed;
+  }
+
+  /* Fills w with width live instructions starting at loc; false when the window would cross a branch target. */
+  boolean window(int loc, int width, int[] w) {
+    w[0] = loc;
+    for (int i = 1; i < width; i++) {
+      int next = nextLive(w[i - 1] + 1);
+      if (next >= code.size || label[next] || code.op[next] == TMBuffer.EMPTY) {
+        return false;
+      }
+      w[i] = next;
+    }
+    return true;
+  }
+
+  /* Removes deleted instructions and relocates pc-relative operands and comment lines. */
+  void compact() {
+    int n = code.size;
+    int[] newAddr = new int[n + 1];
+    int k = 0;
+    for (int loc = 0; loc < n; loc++) {
+      newAddr[loc] = k;
+      if (!deleted[loc]) {
+        k++;
+      }
+    }
+    newAddr[n] = k;
+    if (k == n) {
+      return;
+    }
+    for (int loc = 0; loc < n; loc++) {
+      if (deleted[loc]) {
+        continue;
+      }
+      int to = newAddr[loc];
+      int d = code.d[loc];
+      if (isRelative(code, loc)) {
+        int t = target(loc);
+        if (t >= 0 && t <= n) {
+          d = newAddr[t] - (to + 1);
+        }
+      }
+      code.op[to] = code.op[loc];
+      code.r[to] = code.r[loc];
+      code.s[to] = code.s[loc];
+      code.t[to] = code.t[loc];
+      code.d[to] = d;
+      code.comment[to] = code.comment[loc];
+    }
+    Arrays.fill(code.op, k, n, TMBuffer.EMPTY);
+    for (int i = 0; i < code.lines; i++) {
+      code.lineAt[i] = newAddr[Math.min(code.lineAt[i], n)];
+    }
+    code.size = k;
+  }
+
+  public void report(PrintStream out) {
+    out.println("Peephole: " + before + " -> " + after + " instructions");
+    for (Rule rule : rules) {
+      out.printf("  %-18s %6d%n", rule.name, rule.hits);
+    }
+  }
+}
@@ -1,4 +1,8 @@
+import absyn.Names;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java_cup.runtime.Symbol;
 
 /*
@@ -21,8 +25,23 @@ public class Scanner {
     return scanner.next_token();
   }
 
+  /* With no arguments, prints the terminal name of every token on stdin. With -dump, reads stdin in bulk into a
+     TokenBuffer and writes its listing; with -bin file, writes the buffer to file in binary instead. */
   public static void main(String argv[]) {
     try {
+      if (argv.length > 0) {
+        TokenBuffer tokens = TokenBuffer.scan(Source.read(System.in), new Names());
+        if (argv[0].equals("-dump")) {
+          tokens.writeText(System.out);
+        } else if (argv[0].equals("-bin") && argv.length > 1) {
+          try (OutputStream out = new BufferedOutputStream(new FileOutputStream(argv[1]))) {
+            tokens.write(out);
+          }
+        } else {
+          System.out.println("Usage: Scanner [-dump | -bin file] < source");
+        }
+        return;
+      }
       Scanner scanner = new Scanner(new Lexer(new InputStreamReader(System.in)));
       Symbol tok = null;
       while( (tok=scanner.getNextToken()) != null )
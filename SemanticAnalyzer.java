@@ -2,10 +2,10 @@
   Created by: Alireza Sharif and Pedram Mirmiran
   File Name: SemanticAnalyzer.java
 
-    Description: The SemanticAnalyzer class implements the AbsynVisitor interface for traversing and analyzing an abstract syntax tree (AST)
+    Description: The SemanticAnalyzer class implements the Visitor interface for traversing and analyzing an abstract syntax tree (AST)
      of a program written in the C Minus language. It performs semantic checks such as variable and function declarations,
-      type checking, and scope control. The class uses a symbol table (implemented as a HashMap) to keep track of identifiers
-       and their corresponding types and scope levels. This allows the analyzer to detect and report errors like redeclaration of variables within the same scope,
+      type checking, and scope control. The class uses a scoped symbol table to keep track of identifiers
+       and their corresponding types and scope levels. Types are the canonical Type objects, so checks compare references. It walks the nodes of the Arena the parser built; each visit returns the type of its expression, and the type is also stored with the node in the type column of the Arena. Every name is resolved to its NodeType declaration record, and each record gets its storage as it is declared, so the analysis also fixes the globals and the frame layout of every function for code generation. This allows the analyzer to detect and report errors like redeclaration of variables within the same scope,
         type mismatches in expressions and assignments, and incorrect function call arguments. Furthermore, the SemanticAnalyzer supports handling of arrays,
          including size declarations and index access. Error messages are generated for various semantic violations,
           enhancing the compiler's ability to guide programmers towards correct C Minus program syntax and semantics.
@@ -14,82 +14,144 @@
 */
 
 import absyn.*;
-import java.util.HashMap;
+import ir.Program;
+import ir.Var;
 import java.util.ArrayList;
-import java.util.Set;
-import java.util.Iterator;
+import java.util.Arrays;
 
-public class SemanticAnalyzer implements AbsynVisitor {
+public class SemanticAnalyzer implements Visitor<Type, Integer> {
 
-    HashMap<String, ArrayList<NodeType>> table;
-    ArrayList<String> callArgs;
+    SymbolTable table;
     int globalLevel = 0;
-    String funcType = null;
+    Type funcType = null;
     int returned = 0;
-
-    public SemanticAnalyzer() {
-        table = new HashMap<String, ArrayList<NodeType>>();
-        callArgs = new ArrayList<String>();
+    // Arena the tree was built from; the type of every expression goes into its type column.
+    final Arena tree;
+    // Declaration record of every VAR node and frame of every FUN node, by the Arena index of the node.
+    NodeType[] resolved = new NodeType[256];
+    Frame[] frames = new Frame[256];
+    ArrayList<NodeType> globals = new ArrayList<NodeType>();
+    int globalSize = 0;
+    int variables = 0;
+    int functions = 0;
+    Frame frame = null; // function being analyzed
+    public int errors = 0; // errors reported so far; no code is generated for a program with any
+
+    public SemanticAnalyzer(Arena tree) {
+        this.tree = tree;
+        table = new SymbolTable();
     }
 
+    // Prints the entries declared in the innermost scope.
     public void printLevel(int level) {
         int inc = level;
         level = inc+1;
-        Set<String> keys = table.keySet();
-        Iterator<String> keyIterator = keys.iterator();
-        while (keyIterator.hasNext()) {
-            String key = keyIterator.next();
-            ArrayList<NodeType> map = table.get(key);
-            NodeType last = map.get(map.size() - 1);
-            if (last.level == globalLevel) {
-                indent(level);
-                System.out.println(last.name + ": " + last.def);
-            }
+        ArrayList<NodeType> scope = table.currentScope();
+        for (int i = 0; i < scope.size(); i++) {
+            NodeType node = scope.get(i);
+            indent(level);
+            System.out.println(node.name + ": " + node.def);
         }
         
         int dec = level;
         level = dec-1;
     }
 
-    public void insert(NodeType node) {
-        if (!table.containsKey(node.name)) {
-            ArrayList<NodeType> map = new ArrayList<NodeType>();
-            map.add(node);
-            table.put(node.name, map);
-        } else {
-            ArrayList<NodeType> map = table.get(node.name);
-            map.add(node);
-            table.put(node.name, map);
+    private void error(String message) {
+        System.err.println(message);
+        errors++;
+    }
+
+    // Type the analysis gave node, null for anything but an expression it reached.
+    public Type typeOf(int node) {
+        return node < 0 ? null : tree.type(node);
+    }
+
+    private Type typed(int node, Type type) {
+        if (node >= 0) {
+            tree.setType(node, type);
         }
+        return type;
+    }
+
+    // Declaration record a variable, parameter or function name resolved to, null when it is undefined.
+    public NodeType declOf(int var) {
+        return var >= 0 && var < resolved.length ? resolved[var] : null;
+    }
+
+    public Frame frameOf(int fun) {
+        return fun >= 0 && fun < frames.length ? frames[fun] : null;
+    }
+
+    // Global variables in declaration order, laid out from gp down over globalSize() slots.
+    public ArrayList<NodeType> globals() {
+        return globals;
     }
 
+    public int globalSize() {
+        return globalSize;
+    }
+
+    // Number of variable records; their NodeType.number runs from 0 to variables() - 1.
+    public int variables() {
+        return variables;
+    }
+
+    private void resolve(int var, NodeType node) {
+        if (var < 0) {
+            return;
+        }
+        if (var >= resolved.length) {
+            resolved = Arrays.copyOf(resolved, Math.max(resolved.length * 2, var + 1));
+        }
+        resolved[var] = node;
+    }
 
-    private NodeType lookup(String name) {
-        if (!table.containsKey(name)) {
-            return null;
+    // Gives a variable record its storage: the next global slots, or the next slots of the current frame.
+    private void allocate(NodeType node, int kind, int size) {
+        node.kind = kind;
+        node.size = size;
+        node.number = variables++;
+        if (kind == Var.GLOBAL) {
+            node.offset = -globalSize;
+            node.index = globals.size();
+            globals.add(node);
+            globalSize += node.slots();
         } else {
-            ArrayList<NodeType> list = table.get(name);
-            NodeType curr = list.get(list.size() - 1);
-            return curr;
-        }
-    }
-
-    private void deleteLevel(int level) {
-        Set<String> keys = table.keySet();
-        ArrayList<String> deleteKeys = new ArrayList<String>();
-        Iterator<String> iter = keys.iterator();
-        while (iter.hasNext()) {
-            String key = iter.next();
-            ArrayList<NodeType> map = table.get(key);
-            NodeType last = map.get(map.size() - 1);
-            if (last.level == level) {
-                map.remove(last);
-                if (map.isEmpty()) {
-                    deleteKeys.add(key);
-                }
-            }
+            frame.add(node);
         }
-        keys.removeAll(deleteKeys);
+    }
+
+    // Opens the scope of a block. Its locals take frame slots that are free again once the block closes.
+    private int enterBlock() {
+        table.enterScope();
+        return frame == null ? 0 : frame.mark();
+    }
+
+    private void exitBlock(int mark) {
+        table.exitScope();
+        if (frame != null) {
+            frame.release(mark);
+        }
+    }
+
+    public void insert(NodeType node) {
+        table.insert(node);
+    }
+
+    // Declares the input and output routines in the global scope, under the ids names gives them.
+    public void insertBuiltins(Names names) {
+        NodeType input = new NodeType("input", names.intern("input"), Type.function(Type.INT_TYPE, new Type[0]), 0, 0);
+        NodeType output = new NodeType("output", names.intern("output"),
+                Type.function(Type.VOID_TYPE, new Type[] { Type.INT_TYPE }), 0, 0);
+        input.index = Program.INPUT;
+        output.index = Program.OUTPUT;
+        insert(input);
+        insert(output);
+    }
+
+    private NodeType lookup(int id) {
+        return table.lookup(id);
     }
 
     private void indent(int level) {
@@ -102,481 +164,365 @@ public class SemanticAnalyzer implements AbsynVisitor {
 
     final static int SPACES = 4;
 
-    public void visit(ExpList expList, int level, boolean isAddr) {
-        while (expList != null) {
-            expList.head.accept(this, level, isAddr);
-            if (expList.head.def != null) {
-                callArgs.add(expList.head.def);
-            }
-            expList = expList.tail;
+    // Position of node for an error message.
+    private String at(int node) {
+        return " on line:" + (tree.row(node) + 1) + " and column:" + tree.col(node);
+    }
 
+    // Checks the subtree at node, -1 for a missing one, and returns its type.
+    private Type visit(int node, Integer level) {
+        return node < 0 ? null : tree.accept(node, this, level);
+    }
+
+    // Base type named by a type specifier; anything but int is VOID.
+    private Type baseType(int typeSpec) {
+        if (tree.value(typeSpec) == TypeExp.INT) {
+            return Type.INT_TYPE;
         }
+        return Type.VOID_TYPE;
     }
 
-    public void visit(AssignExp exp, int level, boolean isAddr) {
-        exp.type.accept(this, level, isAddr);
-        exp.name.accept(this, level, isAddr);
-        if (exp.num != null) {
-            if (exp.type.def.equals("VOID")) {
-                System.err.println("Error: array type can't be void on line:" + (exp.row + 1) + " and column:" + exp.col);
+    // Collects the parameter types of a function, void parameters count as INT like in the declaration checks.
+    private void paramTypes(int params, ArrayList<Type> types) {
+        if (params < 0) {
+            return;
+        }
+        if (tree.kind(params) == Arena.PARLIST) {
+            paramTypes(tree.child(params, 0), types);
+            paramTypes(tree.child(params, 1), types);
+        } else if (tree.kind(params) == Arena.PARAM) {
+            if (tree.value(params) == 1) {
+                types.add(Type.array(Type.INT_TYPE, -1));
+            } else {
+                types.add(Type.INT_TYPE);
             }
-            exp.num.accept(this, level, isAddr);
         }
-        NodeType test = lookup(exp.name.info);
-        if (test != null && test.level == globalLevel) {
-            System.err.println("Error: redefined variable " + exp.name.info + " at the same level on line:"
-                    + (exp.row + 1) + " and column:" + exp.col);
-        } else {
-            if (exp.type.def.equals("VOID")) {
-                System.err.println("Error: variables cannot be defined as VOID type on line:" + (exp.row + 1)
-                        + " and column:" + exp.col);
-                exp.type.def = "INT";
+    }
+
+    public Type visitList(int list, Integer level) {
+        for (int cell = list; cell >= 0; cell = tree.child(cell, 1)) {
+            visit(tree.child(cell, 0), level);
+        }
+        return null;
+    }
+
+    // The declared name is not visited: it is resolved to the record made for it here.
+    public Type visitAssign(int exp, Integer level) {
+        int name = tree.child(exp, 0);
+        int num = tree.child(exp, 1);
+        Type base = baseType(tree.child(exp, 2));
+        if (num >= 0) {
+            if (base == Type.VOID_TYPE) {
+                error("Error: array type can't be void" + at(exp));
             }
-            NodeType node;
-            if (exp.num != null) {
-                node = new NodeType(exp.name.info, exp.type.def + "[" + exp.num.info + "]", globalLevel, 0);
-            } else {
-                node = new NodeType(exp.name.info, exp.type.def, globalLevel, 0);
+            visit(num, level);
+        }
+        NodeType test = lookup(tree.value(name));
+        boolean redefined = test != null && test.level == globalLevel;
+        if (redefined) {
+            error("Error: redefined variable " + tree.name(name) + " at the same level" + at(exp));
+        } else if (base == Type.VOID_TYPE) {
+            error("Error: variables cannot be defined as VOID type" + at(exp));
+        }
+        if (base == Type.VOID_TYPE) {
+            base = Type.INT_TYPE;
+        }
+        // A redefinition still gets storage, so the layout covers every declaration, but it is not entered.
+        NodeType node;
+        int slots = 0;
+        if (num >= 0) {
+            int size = 0;
+            try {
+                size = Integer.parseInt(tree.name(num));
+                slots = size;
+            } catch (NumberFormatException e) {
+                slots = 1;
             }
+            slots = Math.max(slots, 1);
+            node = new NodeType(tree.name(name), tree.value(name), Type.array(base, size), globalLevel, 0);
+        } else {
+            node = new NodeType(tree.name(name), tree.value(name), base, globalLevel, 0);
+        }
+        allocate(node, frame == null ? Var.GLOBAL : Var.LOCAL, slots);
+        resolve(name, node);
+        if (!redefined) {
             insert(node);
         }
+        return null;
     }
 
-    public void visit(IfExp exp, int level, boolean isAddr) {
-        if (exp.test != null) {
-            exp.test.accept(this, level, isAddr);
-            if (exp.test.def.equals("VOID")) {
-                System.err.println("Error: If test can't be void on line:" + (exp.row + 1) + " and column:" + exp.col);
-            } else {
-                String temp[] = exp.test.def.split(" ");
-                int i = 0;
-                while (i < temp.length) {
-                    NodeType n = lookup(temp[i]);
-                    if (n != null && n.def.contains("VOID")) {
-                        System.err.println("Error: Test cannot be void at line:" + (exp.row + 1) + " and column:" + exp.col);
-                        break;
-                    }
-                    i++;
-                }
-            }
+    public Type visitIf(int exp, Integer level) {
+        if (visit(tree.child(exp, 0), level) == Type.VOID_TYPE) {
+            error("Error: If test can't be void" + at(exp));
         }
         globalLevel++;
         level++;
         indent(level);
         System.out.println("Entering a new block");
-        if (exp.thenpart != null)
-            exp.thenpart.accept(this, level, isAddr);
+        int mark = enterBlock();
+        visit(tree.child(exp, 1), level);
         printLevel(level);
-        deleteLevel(globalLevel);
+        exitBlock(mark);
         indent(level);
         System.out.println("Leaving a new block");
-        if (exp.elsepart != null) {
+        if (tree.child(exp, 2) >= 0) {
             indent(level);
             System.out.println("Entering a new block");
-            exp.elsepart.accept(this, level, isAddr);
+            mark = enterBlock();
+            visit(tree.child(exp, 2), level);
             printLevel(level);
             indent(level);
             System.out.println("Leaving a new block");
-            deleteLevel(globalLevel);
+            exitBlock(mark);
         }
-        level--;
         globalLevel--;
+        return null;
+    }
+
+    public Type visitInt(int exp, Integer level) {
+        return typed(exp, Type.INT_TYPE);
+    }
 
+    public Type visitOp(int exp, Integer level) {
+        return null;
     }
 
-    public void visit(IntExp exp, int level, boolean isAddr) {
-    }
-
-    public void visit(OpExp exp, int level, boolean isAddr) {
-        switch (exp.op) {
-        case OpExp.PLUS:
-            break;
-        case OpExp.MINUS:
-            break;
-        case OpExp.TIMES:
-            break;
-        case OpExp.OVER:
-            break;
-        case OpExp.EQ:
-            break;
-        case OpExp.LT:
-            break;
-        case OpExp.GT:
-            break;
-        case OpExp.LE:
-            break;
-        case OpExp.GE:
-            break;
-        case OpExp.NEQ:
-            break;
-        case OpExp.ERROR:
-            break;
-        default:
-            break;
-        }
-    }
-
-    public void visit(RepeatExp exp, int level, boolean isAddr) {
+    public Type visitRepeat(int exp, Integer level) {
         globalLevel++;
+        int mark = enterBlock();
 
-        if (exp.test != null) {
-            exp.test.accept(this, level, isAddr);
-            if (exp.test.def.equals("VOID")) {
-                System.err.println("Error: While test can't be void on line:" + (exp.row + 1) + " and column:" + exp.col);
-            } else {
-                String temp[] = exp.test.def.split(" ");
-                for (int i = 0; i < temp.length; i++) {
-                    NodeType n = lookup(temp[i]);
-                    if (n != null && n.def.contains("VOID")) {
-                        System.err.println(
-                                "Error: While test can't be void on line:" + (exp.row + 1) + " and column:" + exp.col);
-                        break;
-                    }
-                }
-            }
+        if (visit(tree.child(exp, 0), level) == Type.VOID_TYPE) {
+            error("Error: While test can't be void" + at(exp));
         }
 
-        int inc = level;
-        level = inc+1;
+        level++;
 
-        if (exp.exps != null) {
+        if (tree.child(exp, 1) >= 0) {
             indent(level);
             System.out.println("Entering a new block");
-            if (exp.exps != null)
-                exp.exps.accept(this, level, isAddr);
+            visit(tree.child(exp, 1), level);
             printLevel(level);
             indent(level);
             System.out.println("Leaving a new block");
-            deleteLevel(globalLevel);
         }
+        exitBlock(mark);
 
-        int dec = level;
-        level = dec-1;
         globalLevel--;
-
+        return null;
     }
 
-    public void visit(VarExp exp, int level, boolean isAddr) {
-        if (exp.exprs != null) {
-            exp.exprs.accept(this, level, isAddr);
-        }
-        NodeType test = lookup(exp.name);
-        if (test != null) {
-            if (exp.exprs != null) {
-                try {
-                    int temp = Integer.parseInt(exp.exprs.info);
-                    exp.def = test.def + "[" + "INT" + "]";
-                } catch (NumberFormatException e) {
-                    NodeType param = lookup(exp.exprs.info);
-                    if (param != null) {
-                        if (param.def.contains("->")) {
-                            exp.def = test.def + "[" + param.def.split(" ")[2] + "]";
-                            if (param.def.split(" ")[2].equals("VOID")) {
-                                System.err.println("Error: VOID type cannot be used to access array on line:"
-                                        + (exp.row + 1) + " and column:" + exp.col);
-                            }
-                        } else {
-                            exp.def = test.def + "[" + param.def + "]";
-                        }
-                    } else {
-                        exp.def = "ERROR - undefined";
-                    }
-                }
-            } else {
-                exp.def = test.def;
-            }
+    // An indexed array yields its element type; indexing with a VOID value is an error.
+    public Type visitVar(int exp, Integer level) {
+        int subscript = tree.child(exp, 0);
+        Type index = visit(subscript, level);
+        NodeType test = lookup(tree.value(exp));
+        resolve(exp, test);
+        Type type;
+        if (test == null) {
+            type = Type.UNDEFINED;
+        } else if (subscript < 0) {
+            type = test.type;
+        } else if (index == Type.UNDEFINED) {
+            type = Type.UNDEFINED;
+        } else if (index == Type.VOID_TYPE) {
+            error("Error: VOID type cannot be used to access array" + at(exp));
+            type = Type.ERROR_TYPE;
+        } else if (test.type.kind == Type.ARRAY) {
+            type = test.type.elem;
         } else {
-            exp.def = "ERROR - undefined";
+            error("Error: Only an array can be indexed" + at(exp));
+            type = Type.ERROR_TYPE;
         }
+        return typed(exp, type);
     }
 
-    public void visit(TypeExp exp, int level, boolean isAddr) {
+    public Type visitType(int exp, Integer level) {
+        return null;
     }
 
-    public void visit(FunExp exp, int level, boolean isAddr) {
-        exp.type.accept(this, level, isAddr);
-        exp.name.accept(this, level, isAddr);
-
-        NodeType test = lookup(exp.name.info);
-        globalLevel++;
-        level++;
-        indent(level);
-        System.out.println("Entering the scope for function " + exp.name.info + ":");
-        if (exp.params != null) {
-            exp.params.accept(this, level, isAddr);
-        }
-
+    public Type visitFun(int exp, Integer level) {
+        int name = tree.child(exp, 1);
+        int paramList = tree.child(exp, 2);
+        ArrayList<Type> params = new ArrayList<Type>();
+        paramTypes(paramList, params);
+        Type signature = Type.function(baseType(tree.child(exp, 0)), params.toArray(new Type[params.size()]));
+
+        NodeType test = lookup(tree.value(name));
+        NodeType node = new NodeType(tree.name(name), tree.value(name), signature, globalLevel, 0);
+        // Every definition becomes a function of the IR program, in this order.
+        node.index = functions++;
+        // The function itself belongs to the global scope, so it is entered before its own scope is opened.
         if (test != null && test.level == 0) {
-            System.err.println("Error: Function name already exists at the same level on line:" + (exp.row + 1)
-                    + " and column:" + exp.col);
+            error("Error: Function name already exists at the same level" + at(exp));
         } else {
-            if (exp.params != null) {
-                if (exp.params.def.equalsIgnoreCase("VOID")) {
-                    exp.type.def = "(" + exp.params.def + ") -> " + exp.type.def;
-                } else {
-                    exp.type.def = "(" + exp.params.def.replaceAll("VOID", "INT") + ") -> " + exp.type.def;
-                }
-            } else {
-                exp.type.def = "(" + ") -> " + exp.type.def;
-            }
-            NodeType node = new NodeType(exp.name.info, exp.type.def, globalLevel - 1, 0);
             insert(node);
         }
-        funcType = exp.type.def;
-        returned = 0;
-        if (exp.compound != null) {
-            exp.compound.accept(this, level, isAddr);
+        resolve(name, node);
+        frame = new Frame(node);
+        if (exp >= frames.length) {
+            frames = Arrays.copyOf(frames, Math.max(frames.length * 2, exp + 1));
         }
+        frames[exp] = frame;
+        globalLevel++;
+        level++;
+        indent(level);
+        System.out.println("Entering the scope for function " + tree.name(name) + ":");
+        table.enterScope();
+        visit(paramList, level);
+        funcType = signature;
+        returned = 0;
+        visit(tree.child(exp, 3), level);
         if (returned == 0) {
-            if (funcType.split(" ").length > 2 && funcType.split(" ")[2].equals("INT")) {
-                System.err.println("Error: Function declared with type INT but has no return on line:" + (exp.row + 1)
-                        + " and column:" + exp.col);
+            if (funcType.elem == Type.INT_TYPE) {
+                error("Error: Function declared with type INT but has no return" + at(exp));
             }
         }
         printLevel(level);
         indent(level);
         System.out.println("Leaving the function scope");
-        deleteLevel(globalLevel);
+        table.exitScope();
         globalLevel--;
-        level--;
         funcType = null;
+        frame = null;
+        return null;
     }
 
-    public void visit(ParListExp exp, int level, boolean isAddr) {
-        exp.paramlist.accept(this, level, isAddr);
-        exp.param.accept(this, level, isAddr);
+    public Type visitParList(int exp, Integer level) {
+        visit(tree.child(exp, 0), level);
+        visit(tree.child(exp, 1), level);
+        return null;
     }
 
-    public void visit(ParamExp exp, int level, boolean isAddr) {
-        exp.type.accept(this, level, isAddr);
-        exp.name.accept(this, level, isAddr);
-        NodeType test = lookup(exp.name.info);
-        if (test != null && test.level == globalLevel) {
-            System.err.println("Error: Variable " + exp.name.info + " already exist at the same level on line:"
-                    + (exp.row + 1) + " and column:" + exp.col);
-        } else {
-            if (exp.type.def.equals("VOID")) {
-                System.err.println("Error: variables cannot be defined as VOID type on line:" + (exp.row + 1)
-                        + " and column:" + exp.col);
-                exp.type.def = "INT";
-            }
-            if(exp.array == 1){
-                exp.type.def = exp.type.def+"[-1]";
-            }
-            NodeType node = new NodeType(exp.name.info, exp.type.def, globalLevel, 0);
+    public Type visitParam(int exp, Integer level) {
+        int name = tree.child(exp, 1);
+        NodeType test = lookup(tree.value(name));
+        boolean redefined = test != null && test.level == globalLevel;
+        Type base = baseType(tree.child(exp, 0));
+        if (redefined) {
+            error("Error: Variable " + tree.name(name) + " already exist at the same level" + at(exp));
+        } else if (base == Type.VOID_TYPE) {
+            error("Error: variables cannot be defined as VOID type" + at(exp));
+        }
+        if (base == Type.VOID_TYPE) {
+            base = Type.INT_TYPE;
+        }
+        boolean array = tree.value(exp) == 1;
+        if (array) {
+            base = Type.array(base, -1);
+        }
+        NodeType node = new NodeType(tree.name(name), tree.value(name), base, globalLevel, 0);
+        allocate(node, Var.PARAM, array ? -1 : 0);
+        resolve(name, node);
+        if (!redefined) {
             insert(node);
         }
-
+        return null;
     }
 
-    public void visit(CompExp exp, int level, boolean isAddr) {
-        if (exp.first != null)
-            exp.first.accept(this, level, isAddr);
-        if (exp.second != null)
-            exp.second.accept(this, level, isAddr);
-        if (exp.first != null && exp.second != null) {
-            if (!exp.first.def.contains("ERROR") && !exp.second.def.contains("ERROR")) {
-                String first = exp.first.def;
-                String second = exp.second.def;
-                int array = 0;
-                int array2 = 0;
-                if (exp.first.def.contains("[")) {
-                    array = 1;
-                    String[] allFirst = exp.first.def.split("\\[");
-                    first = allFirst[0];
-                    if (allFirst.length > 2) {
-                        array = 0;
-                        if (exp.first.def.contains("ERROR")) {
-                            exp.def = "ERROR";
-                            return;
-                        } else {
-                            if (!first.equals(exp.first.def.split("\\[")[2].split("]")[0])) {
-                                exp.def = "ERROR";
-                                System.err.println("Error: VOID type cannot be used to access array on line:"
-                                        + (exp.row + 1) + " and column:" + exp.col);
-                                return;
-                            }
-                        }
-                    }
-                }
-                if (exp.second.def.contains("[")) {
-                    array2 = 1;
-                    String[] allSecond = exp.second.def.split("\\[");
-                    second = allSecond[0];
-                    if (allSecond.length > 2) {
-                        array2 = 0;
-                    }
-                }
-                if (array != array2) {
-                    System.err.println(
-                            "Error: Invalid types for statement on line:" + (exp.row + 1) + " and column:" + exp.col);
-                    exp.def = "ERROR";
-                    return;
-                } else if (array == 1) {
-                    System.err.println("Error: Arrays cannot be used in assignments on line:" + (exp.row + 1)
-                            + " and column:" + exp.col);
-                    exp.def = "ERROR";
-                    return;
-                }
-
-                if (first.equals(second)) {
-                    exp.def = first;
-                } else if (!first.equals(second)) {
-                    exp.def = "ERROR";
-                    System.err.println(
-                            "Error: Invalid types for statement on line:" + (exp.row + 1) + " and column:" + exp.col);
-                }
-            }
-            if (exp.first.def.equals("ERROR - undefined")) {
-                System.err.println("Error: Variable not defined on line:" + (exp.row + 1) + " and column:" + exp.col);
-            }
-            if (exp.second.def.equals("ERROR - undefined")) {
-                System.err.println("Error: Variable not defined on line:" + (exp.row + 1) + " and column:" + exp.col);
-            }
+    public Type visitComp(int exp, Integer level) {
+        Type first = visit(tree.child(exp, 0), level);
+        Type second = visit(tree.child(exp, 1), level);
+        if (first == null || second == null) {
+            return typed(exp, Type.ERROR_TYPE);
+        }
+        Type type;
+        if (first.isError() || second.isError()) {
+            type = Type.ERROR_TYPE;
+        } else if ((first.kind == Type.ARRAY) != (second.kind == Type.ARRAY)) {
+            error("Error: Invalid types for statement" + at(exp));
+            type = Type.ERROR_TYPE;
+        } else if (first.kind == Type.ARRAY) {
+            error("Error: Arrays cannot be used in assignments" + at(exp));
+            type = Type.ERROR_TYPE;
+        } else if (first == second) {
+            type = first;
         } else {
-            exp.def = "ERROR";
+            type = Type.ERROR_TYPE;
+            error("Error: Invalid types for statement" + at(exp));
         }
+        if (first == Type.UNDEFINED) {
+            error("Error: Variable not defined" + at(exp));
+        }
+        if (second == Type.UNDEFINED) {
+            error("Error: Variable not defined" + at(exp));
+        }
+        return typed(exp, type);
     }
 
-    public void visit(ReturnExp exp, int level, boolean isAddr) {
-        if (exp.exps != null) {
-            exp.exps.accept(this, level, isAddr);
-            if (!exp.exps.def.equals(funcType.split(" -> ")[1])) {
-                System.err.println(
-                        "Error: Function return type mismatch on line:" + (exp.row + 1) + " and column:" + exp.col);
+    public Type visitReturn(int exp, Integer level) {
+        if (tree.child(exp, 0) >= 0) {
+            if (visit(tree.child(exp, 0), level) != funcType.elem) {
+                error("Error: Function return type mismatch" + at(exp));
             }
         } else {
-            if (!funcType.split(" -> ")[1].equals("VOID")) {
-                System.err.println(
-                        "Error: Function return type mismatch on line:" + (exp.row + 1) + " and column:" + exp.col);
+            if (funcType.elem != Type.VOID_TYPE) {
+                error("Error: Function return type mismatch" + at(exp));
             }
         }
         returned++;
+        return null;
     }
 
-    public void visit(MathExp exp, int level, boolean isAddr) {
-        exp.lhs.accept(this, level, isAddr);
-        exp.op.accept(this, level, isAddr);
-        exp.rhs.accept(this, level, isAddr);
-
-        if (!exp.lhs.def.contains("ERROR") && !exp.rhs.def.contains("ERROR")) {
-            String left = exp.lhs.def;
-            String right = exp.rhs.def;
-            int array = 0;
-            int array2 = 0;
-            if (exp.lhs.def.contains("[")) {
-                array = 1;
-                String[] allFirst = exp.lhs.def.split("\\[");
-                left = allFirst[0];
-                if (allFirst.length > 2) {
-                    array = 0;
-                    if (exp.lhs.def.contains("ERROR")) {
-                        exp.def = "ERROR";
-                        return;
-                    } else {
-                        if (!left.equals(exp.lhs.def.split("\\[")[2].split("]")[0])) {
-                            exp.def = "ERROR";
-                            System.err.println("Error: VOID type cannot be used to access array on line:"
-                                    + (exp.row + 1) + " and column:" + exp.col);
-                            return;
-                        }
-                    }
-                }
-            }
-            if (exp.rhs.def.contains("[")) {
-                array2 = 1;
-                String[] allSecond = exp.rhs.def.split("\\[");
-                right = allSecond[0];
-                if (allSecond.length > 2) {
-                    array2 = 0;
-                    if (exp.rhs.def.contains("ERROR")) {
-                        exp.def = "ERROR";
-                        return;
-                    } else {
-                        if (!right.equals(exp.rhs.def.split("\\[")[2].split("]")[0])) {
-                            exp.def = "ERROR";
-                            System.err.println("Error: VOID type cannot be used to access array on line:"
-                                    + (exp.row + 1) + " and column:" + exp.col);
-                            return;
-                        }
-                    }
-                }
-            }
+    public Type visitMath(int exp, Integer level) {
+        Type left = visit(tree.child(exp, 0), level);
+        Type right = visit(tree.child(exp, 2), level);
+
+        Type type;
+        if (left == Type.UNDEFINED || right == Type.UNDEFINED) {
+            error("Error: Variable not defined" + at(exp));
+            type = Type.ERROR_TYPE;
+        } else if (left.isError() || right.isError()) {
+            type = Type.ERROR_TYPE;
+        } else if (left.kind == Type.ARRAY || right.kind == Type.ARRAY) {
+            error("Error: Invalid types for statement" + at(exp));
+            type = Type.ERROR_TYPE;
+        } else if (left == right) {
+            type = left;
+        } else {
+            type = Type.ERROR_TYPE;
+            error("Error: Invalid types for equation" + at(exp));
+        }
+        return typed(exp, type);
+    }
 
-            if (array != array2) {
-                System.err
-                        .println("Error: Invalid types for statement on line:" + (exp.row + 1) + " and column:" + exp.col);
-                exp.def = "ERROR";
-                return;
-            }
-            if (array == 1 || array2 == 1) {
-                System.err
-                        .println("Error: Invalid types for statement on line:" + (exp.row + 1) + " and column:" + exp.col);
-                exp.def = "ERROR";
-                return;
-            }
+    // Checks each argument against the matching parameter of the callee, arrays match regardless of their size.
+    public Type visitCall(int exp, Integer level) {
+        int name = tree.child(exp, 0);
+        visit(name, level);
+        NodeType value = lookup(tree.value(name));
+        Type[] params = null;
+        if (value != null && value.type.kind == Type.FUNCTION) {
+            params = value.type.params;
+        }
 
-            if (left.equals(right)) {
-                exp.def = left;
-            } else if (!left.equals(right)) {
-                exp.def = "ERROR";
-                System.err
-                        .println("Error: Invalid types for equation on line:" + (exp.row + 1) + " and column:" + exp.col);
-            }
-        } else if (exp.lhs.def.equals("ERROR - undefined") || exp.rhs.def.equals("ERROR - undefined")) {
-            System.err.println("Error: Variable not defined on line:" + (exp.row + 1) + " and column:" + exp.col);
-            exp.def = "ERROR";
-        } else {
-            exp.def = "ERROR";
-        }
-    }
-
-    public void visit(CallExp exp, int level, boolean isAddr) {
-        callArgs.clear();
-        String all = "";
-        exp.name.accept(this, level, isAddr);
-        if (exp.args != null) {
-            exp.args.accept(this, level, isAddr);
-            all = all.concat("(");
-            Iterator<String> iterator = callArgs.iterator();
-            while (iterator.hasNext()) {
-                String s = iterator.next();
-                String curr = s;
-                if (s.contains("[")) {
-                    if (s.split("\\[").length > 2) {
-                        curr = s.split("\\[")[0];
-                    }
+        boolean undefined = false;
+        boolean matches = true;
+        int count = 0;
+        for (int args = tree.child(exp, 1); args >= 0; args = tree.child(args, 1)) {
+            int arg = tree.child(args, 0);
+            if (arg >= 0) {
+                Type type = visit(arg, level);
+                if (type.isError()) {
+                    undefined = true;
+                } else if (params == null || count >= params.length || !params[count].accepts(type)) {
+                    matches = false;
                 }
-                all = all.concat(curr.replaceAll("\\n", "")).concat(", ");
+                count++;
             }
-            
-            all = all.substring(0, all.length() - 2).concat(")");
         }
 
-        NodeType value = lookup(exp.name.name);
-
-        if (all.contains("ERROR")) {
-            System.err.println("Error: Variable not defined on line:" + (exp.row + 1) + " and column:" + exp.col);
-            exp.def = "ERROR";
+        if (undefined) {
+            error("Error: Variable not defined" + at(exp));
         }
 
-        if (value != null) {
-            String funcArgs = value.def.split(" -> ")[0];
-            if (funcArgs.equalsIgnoreCase("(VOID)")) {
-                funcArgs = "";
-            }
-            funcArgs=funcArgs.replaceAll("\\[(.*?)\\]", "[]");
-            all= all.replaceAll("\\[(.*?)\\]", "[]");
-            if (!all.equals(funcArgs)) {
-                System.err.println("Error: Invalid function call on line:" + (exp.row + 1) + " and column:" + exp.col);
-                exp.def = "ERROR";
+        if (params != null) {
+            if (!undefined && (!matches || count != params.length)) {
+                error("Error: Invalid function call" + at(exp));
             }
-            exp.def = value.def.split(" -> ")[1];
-        } else {
-            exp.def = "ERROR";
-            System.err.println("Error: Unknown function on line:" + (exp.row + 1) + " and column:" + exp.col);
+            return typed(exp, value.type.elem);
         }
-        callArgs.clear();
+        error("Error: Unknown function" + at(exp));
+        return typed(exp, Type.ERROR_TYPE);
     }
 
 }
@@ -0,0 +1,42 @@
+/*
+  File Name: Source.java
+
+  Description: Reads a whole C Minus source into a char array before lexing. A file is memory-mapped and decoded in
+    one pass, and standard input is read in bulk, so the lexer can scan the array in place instead of reading it from an
+    unbuffered FileReader one block at a time.
+*/
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class Source {
+  /* The characters of the file fileName, in the platform charset as FileReader reads them. */
+  public static char[] read(String fileName) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+      MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return decode(bytes);
+    }
+  }
+
+  public static char[] read(InputStream in) throws IOException {
+    return decode(ByteBuffer.wrap(in.readAllBytes()));
+  }
+
+  private static char[] decode(ByteBuffer bytes) {
+    CharBuffer chars = Charset.defaultCharset().decode(bytes);
+    if (chars.hasArray() && chars.arrayOffset() == 0 && chars.position() == 0
+        && chars.limit() == chars.array().length) {
+      return chars.array();
+    }
+    char[] text = new char[chars.remaining()];
+    chars.get(text);
+    return text;
+  }
+}
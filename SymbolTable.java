@@ -0,0 +1,55 @@
+/*
+  File Name: SymbolTable.java
+
+  Description: Scoped symbol table of the SemanticAnalyzer, which resolves every name once; later phases read the
+    declaration records it resolved names to instead of looking names up again. Names are the int ids the
+    lexer gives their spellings in a Names pool, and since the ids are dense from 0, the innermost visible NodeType
+    for every name sits in an array indexed by id, which grows when a larger id comes along. Each entry links to the
+    entry it shadows. Every open scope keeps the list of entries declared in it, so lookup is a single array load and
+    leaving a scope only touches the entries that were declared in that scope.
+*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class SymbolTable {
+  private NodeType[] visible;
+  private ArrayList<ArrayList<NodeType>> scopes;
+
+  public SymbolTable() {
+    visible = new NodeType[64];
+    scopes = new ArrayList<ArrayList<NodeType>>();
+    enterScope(); // global scope
+  }
+
+  public void enterScope() {
+    scopes.add(new ArrayList<NodeType>());
+  }
+
+  /* Closes the innermost scope and makes the entries it shadowed visible again. */
+  public void exitScope() {
+    ArrayList<NodeType> scope = scopes.remove(scopes.size() - 1);
+    for (int i = scope.size() - 1; i >= 0; i--) {
+      NodeType node = scope.get(i);
+      visible[node.id] = node.shadowed;
+    }
+  }
+
+  /* Entries declared in the innermost scope, in declaration order. */
+  public ArrayList<NodeType> currentScope() {
+    return scopes.get(scopes.size() - 1);
+  }
+
+  public void insert(NodeType node) {
+    if (node.id >= visible.length) {
+      visible = Arrays.copyOf(visible, Math.max(visible.length * 2, node.id + 1));
+    }
+    node.shadowed = visible[node.id];
+    visible[node.id] = node;
+    currentScope().add(node);
+  }
+
+  public NodeType lookup(int id) {
+    return id < visible.length ? visible[id] : null;
+  }
+}
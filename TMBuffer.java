@@ -0,0 +1,199 @@
+/*
+  File Name: TMBuffer.java
+
+  Description: In-memory store for the TM instructions produced by TMCodeGen. Instructions live in parallel int
+    arrays indexed by their address (opcode, r, s, t, d and a comment id), comments are interned in a pool, and
+    backpatching overwrites a slot in place. Nothing is formatted until the whole program is written out once,
+    in ascending address order, with a single write.
+*/
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class TMBuffer {
+  // Register-only opcodes
+  public final static int HALT = 0;
+  public final static int IN = 1;
+  public final static int OUT = 2;
+  public final static int ADD = 3;
+  public final static int SUB = 4;
+  public final static int MUL = 5;
+  public final static int DIV = 6;
+  // Register-memory opcodes
+  public final static int LD = 7;
+  public final static int ST = 8;
+  public final static int LDA = 9;
+  public final static int LDC = 10;
+  public final static int JLT = 11;
+  public final static int JLE = 12;
+  public final static int JGT = 13;
+  public final static int JGE = 14;
+  public final static int JEQ = 15;
+  public final static int JNE = 16;
+
+  public final static String[] NAMES = { "HALT", "IN", "OUT", "ADD", "SUB", "MUL", "DIV", "LD", "ST", "LDA", "LDC",
+      "JLT", "JLE", "JGT", "JGE", "JEQ", "JNE" };
+
+  final static int EMPTY = -1;
+
+  public int[] op = new int[256];
+  public int[] r = new int[256];
+  public int[] s = new int[256];
+  public int[] t = new int[256];
+  public int[] d = new int[256];
+  public int[] comment = new int[256];
+  public int size; // one past the highest address written or reserved
+
+  // Interned comment strings, shared by instruction comments and comment lines.
+  ArrayList<String> pool = new ArrayList<String>();
+  HashMap<String, Integer> poolIndex = new HashMap<String, Integer>();
+
+  // Comment lines, each printed before the instruction at its address.
+  int[] lineAt = new int[64];
+  int[] lineText = new int[64];
+  int lines;
+
+  public TMBuffer() {
+    Arrays.fill(op, EMPTY);
+  }
+
+  public static boolean isRO(int opcode) {
+    return opcode <= DIV;
+  }
+
+  public static int opcode(String name) {
+    for (int i = 0; i < NAMES.length; i++) {
+      if (NAMES[i].equals(name)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("unknown TM opcode " + name);
+  }
+
+  public int intern(String c) {
+    Integer id = poolIndex.get(c);
+    if (id == null) {
+      id = pool.size();
+      pool.add(c);
+      poolIndex.put(c, id);
+    }
+    return id;
+  }
+
+  public String commentText(int id) {
+    return pool.get(id);
+  }
+
+  private void ensure(int loc) {
+    if (loc < op.length) {
+      return;
+    }
+    int n = Math.max(op.length * 2, loc + 1);
+    int old = op.length;
+    op = Arrays.copyOf(op, n);
+    Arrays.fill(op, old, n, EMPTY);
+    r = Arrays.copyOf(r, n);
+    s = Arrays.copyOf(s, n);
+    t = Arrays.copyOf(t, n);
+    d = Arrays.copyOf(d, n);
+    comment = Arrays.copyOf(comment, n);
+  }
+
+  /* Reserves addresses up to loc without filling them. */
+  public void reserve(int loc) {
+    ensure(loc);
+    if (size < loc) {
+      size = loc;
+    }
+  }
+
+  /* Writes an instruction into slot loc, overwriting whatever the slot held. */
+  public void set(int loc, int opcode, int r, int s, int t, int d, String c) {
+    ensure(loc);
+    this.op[loc] = opcode;
+    this.r[loc] = r;
+    this.s[loc] = s;
+    this.t[loc] = t;
+    this.d[loc] = d;
+    this.comment[loc] = intern(c);
+    if (size <= loc) {
+      size = loc + 1;
+    }
+  }
+
+  public boolean isEmpty(int loc) {
+    return loc >= op.length || op[loc] == EMPTY;
+  }
+
+  /* Adds a comment line that is printed just before the instruction at address loc. */
+  public void addLine(int loc, String c) {
+    if (lines == lineAt.length) {
+      lineAt = Arrays.copyOf(lineAt, lines * 2);
+      lineText = Arrays.copyOf(lineText, lines * 2);
+    }
+    lineAt[lines] = loc;
+    lineText[lines] = intern(c);
+    lines++;
+  }
+
+  private static void pad(StringBuilder sb, String text, int width) {
+    for (int i = text.length(); i < width; i++) {
+      sb.append(' ');
+    }
+    sb.append(text);
+  }
+
+  /* Appends the text form of the instruction at loc, in the layout the TM simulator reads. */
+  public void format(StringBuilder sb, int loc) {
+    int o = op[loc];
+    pad(sb, Integer.toString(loc), 3);
+    sb.append(": ");
+    pad(sb, NAMES[o], 5);
+    sb.append(' ').append(r[loc]).append(", ");
+    if (isRO(o)) {
+      sb.append(s[loc]).append(", ").append(t[loc]);
+    } else {
+      sb.append(d[loc]).append('(').append(s[loc]).append(')');
+    }
+    sb.append('\t').append(pool.get(comment[loc])).append('\n');
+  }
+
+  /* Text listing in ascending address order, comment lines in front of the instruction they precede. */
+  public String toText() {
+    // Chain the comment lines per address, keeping their emission order.
+    int[] first = new int[size + 1];
+    int[] next = new int[lines];
+    int[] last = new int[size + 1];
+    Arrays.fill(first, -1);
+    for (int i = 0; i < lines; i++) {
+      int at = Math.min(lineAt[i], size);
+      next[i] = -1;
+      if (first[at] == -1) {
+        first[at] = i;
+      } else {
+        next[last[at]] = i;
+      }
+      last[at] = i;
+    }
+
+    StringBuilder sb = new StringBuilder(size * 40 + lines * 24);
+    for (int loc = 0; loc <= size; loc++) {
+      for (int i = first[loc]; i != -1; i = next[i]) {
+        sb.append("* ").append(pool.get(lineText[i])).append('\n');
+      }
+      if (loc < size && op[loc] != EMPTY) {
+        format(sb, loc);
+      }
+    }
+    return sb.toString();
+  }
+
+  public void writeText(OutputStream out) throws IOException {
+    out.write(toText().getBytes(StandardCharsets.UTF_8));
+    out.flush();
+  }
+}
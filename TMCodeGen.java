@@ -1,34 +1,33 @@
-
 /*
   Created by: Alireza Sharif & Pedram Mirmiran
   File Name: TMCodeGen.java
 
-Description: This class is responsible for generating Tiny Machine (TM) code from an abstract syntax tree (AST) of the C Minus language. 
-    It implements the AbsynVisitor interface, allowing it to visit different nodes of the AST and generate the corresponding TM instructions.
-    The class manages a symbol table to keep track of variable and function declarations, employs a stack to handle scope levels,
-    and calculates memory offsets for variable storage and instruction emission. The class provides methods for emitting various types of TM instructions,
+Description: This class is responsible for generating Tiny Machine (TM) code from the three-address IR that IRGen lowers
+    the abstract syntax tree of a C Minus program into. The class provides methods for emitting various types of TM instructions,
      including register-only (RO), register-memory (RM), and instructions with absolute addressing.
-      It also handles the creation of standard prelude and conclusion code segments, function calls, arithmetic operations, conditional statements, and loops.
-     Key functionalities include handling function calls with argument passing, generating code for if-else and while statements,
-      managing array accesses with bounds checking, and emitting comments for better readability of the generated TM code.
+      Instructions are collected in a TMBuffer, backpatched in place and written out once at the end.
+      It also handles the creation of the standard prelude and the call of main. Only the functions main calls, directly or
+      not, and the i/o routines those use are generated; the rest of the program is left out.
+     Globals are addressed from gp and locals from fp. Element i of an array lives at (address of element 0) - i,
+      and arrays are passed by reference: the argument slot holds the address of element 0.
+     Locals are laid out by FrameLayout, so that those whose live ranges do not overlap share frame slots.
+     The temporaries of each function are given registers 2-4 by a linear scan over its instructions. A temporary whose
+      lifetime spans a call, or that finds no free register, lives in a spill slot below the locals instead, and a slot
+      is handed to the next spilled temporary once the lifetime of the one before has ended, so the frame has no more
+      spill slots than there are spilled temporaries live at once. The frame of a callee starts right below the spill slots. A tail call stores its arguments over the parameters of the
+      caller and jumps to the callee, which takes the frame over and returns to the caller's caller.
 
 */
 
-import java.util.HashMap;
+import ir.*;
+import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.Set;
-import java.util.Iterator;
-
-import absyn.*;
+import java.util.Arrays;
 
-public class TMCodeGen implements AbsynVisitor {
-    // Main entry point address, global offset for variable storage, and current location for emitting code.
-    int mainEntry, globalOffset;
+public class TMCodeGen {
+    // Current location for emitting code; the program starts at 0 with the prelude, which calls main.
     int emitLoc;
-    int highEmitLoc;
-    String funct;
-    HashMap<String, ArrayList<NodeType>> table;
-    ArrayList<String> callArgs;
+    TMBuffer code;
     // Fixed offsets and registers for TM machine operations.
     final int retOF = -1;
     final int initOF = -2;
@@ -38,585 +37,471 @@ public class TMCodeGen implements AbsynVisitor {
     final int pc = 7;
     final int gp = 6;
     final int fp = 5;
-    int globalLevel = 0;
-    boolean flag = true;
-    int inParam = 0;
-
+    // Registers handed out to temporaries.
+    final int[] temps = { 2, 3, 4 };
+
+    // Entry address of every function by Function.index and of the i/o routines, -1 until generated, and the
+    // calls waiting for one with the index of their callee.
+    int[] entries;
+    int inputEntry = -1, outputEntry = -1;
+    int[] callAt = new int[16];
+    int[] callee = new int[16];
+    int calls;
+
+    // State of the function being generated.
+    Function fn;
+    int[] reg;  // register of each temporary, -1 when it lives in its spill slot
+    int[] slot; // frame offset of a spilled temporary
+    int spills;
+    int callBase; // offset of the frame of a callee
+    int[] labelAddr;
+    int[] jumpAt = new int[16];
+    int jumps;
+    String note; // IR instruction being translated, used as the comment
+
+    // Functions and i/o routines left out because main never reaches them.
+    ArrayList<String> skipped = new ArrayList<String>();
+    int generated;
+    // Frame size of every generated function, and what it would be with a slot for every variable and spill.
+    StringBuilder frames = new StringBuilder();
+    int frameSlots, unsharedSlots;
+    FrameLayout layout = new FrameLayout();
 
     public TMCodeGen() {
-        mainEntry = 0;
-        globalOffset = 0;
-        table = new HashMap<String, ArrayList<NodeType>>();
-        callArgs = new ArrayList<String>();
+        code = new TMBuffer();
     }
 // Emit a register-only instruction.
-    public void emitRO(String op, int r, int s, int t, String c) {
-        System.out.printf("%3d: %5s %d, %d, %d\t%s\n", emitLoc, op, r, s, t, c);
+    public void emitRO(int op, int r, int s, int t, String c) {
+        code.set(emitLoc, op, r, s, t, 0, c);
         emitLoc++;
-        if (highEmitLoc < emitLoc)
-            highEmitLoc = emitLoc;
     }
     // Emit a register-memory instruction.
-    public void emitRM(String op, int r, int d, int s, String c) {
-        System.out.printf("%3d: %5s %d, %d(%d)\t%s\n", emitLoc, op, r, d, s, c);
+    public void emitRM(int op, int r, int d, int s, String c) {
+        code.set(emitLoc, op, r, s, 0, d, c);
         emitLoc++;
-        if (highEmitLoc < emitLoc)
-            highEmitLoc = emitLoc;
     }
     // Emit a register-memory instruction with absolute addressing.
-    public void emitRM_Abs(String op, int r, int a, String c) {
-        System.out.printf("%3d: %5s %d, %d(%d) \t%s\n", emitLoc, op, r, (a - (emitLoc + 1)), pc, c);
-
+    public void emitRM_Abs(int op, int r, int a, String c) {
+        code.set(emitLoc, op, r, pc, 0, a - (emitLoc + 1), c);
         emitLoc++;
-        if (highEmitLoc < emitLoc)
-            highEmitLoc = emitLoc;
+    }
+    // Fill a slot reserved by emitSkip with a register-memory instruction.
+    public void patchRM(int loc, int op, int r, int d, int s, String c) {
+        code.set(loc, op, r, s, 0, d, c);
+    }
+    // Fill a slot reserved by emitSkip with a pc-relative jump to the absolute address a.
+    public void patchRM_Abs(int loc, int op, int r, int a, String c) {
+        code.set(loc, op, r, pc, 0, a - (loc + 1), c);
     }
 
     public int emitSkip(int distance) {
         int i = emitLoc;
         emitLoc = emitLoc+distance;
-        if (highEmitLoc < emitLoc) {
-            highEmitLoc = emitLoc;
-        }
+        code.reserve(emitLoc);
         return i;
     }
 
     public void emitComment(String c) {
-        System.out.println("* " + c);
+        code.addLine(emitLoc, c);
     }
 
-    public void emitBackup(int loc) {
-        if (loc > highEmitLoc) {
-            emitComment("BUG in emitBackup");
-        }
-        emitLoc = loc;
-    }
-
-    public void emitRestore() {
-        emitLoc = highEmitLoc;
-    }
+    // Generates the whole program: prelude and call of main, the i/o routines main uses, then every function it reaches.
+    public void generate(Program program) {
+        entries = new int[program.functions.size()];
+        Arrays.fill(entries, -1);
+        Function mainFunction = program.lookup("main");
+        emitComment("Standard prelude:");
+        emitRM(TMBuffer.LD, gp, 0, ac, "load gp with maxaddress");
+        emitRM(TMBuffer.LDA, fp, 0, gp, "copy to gp to fp");
+        emitRM(TMBuffer.ST, ac, 0, ac, "clear location 0");
+        emitComment("End of standard prelude.");
 
-    private void deleteLevel(int level) {
-        Set<String> keys = table.keySet();
-        ArrayList<String> deleteKeys = new ArrayList<String>();
-        Iterator<String> keyIterator = keys.iterator();
-        while (keyIterator.hasNext()) {
-            String key = keyIterator.next();
-            ArrayList<NodeType> list = table.get(key);
-            NodeType last = list.get(list.size() - 1);
-            if (last.level == level) {
-                list.remove(last);
-                if (list.isEmpty()) {
-                    deleteKeys.add(key);
-                }
-            }
+        // The frame of main starts right below the globals.
+        if (mainFunction != null) {
+            emitRM(TMBuffer.ST, fp, -program.globalSize + ofpFO, fp, "push ofp");
+            emitRM(TMBuffer.LDA, fp, -program.globalSize, fp, "push frame");
+            emitRM(TMBuffer.LDA, ac, 1, pc, "load ac with ret ptr");
+            call(mainFunction.index, "jump to main loc");
+            emitRM(TMBuffer.LD, fp, ofpFO, fp, "pop frame");
         }
-        
-        keys.removeAll(deleteKeys);
-    }
+        emitComment("End of Execution");
+        emitRO(TMBuffer.HALT, 0, 0, 0, "");
 
-    public void insert(NodeType node) {
-        if (!table.containsKey(node.name)) {
-            ArrayList<NodeType> list = new ArrayList<NodeType>();
-            list.add(node);
-            table.put(node.name, list);
+        // Only what main can reach is generated; without a main everything is.
+        CallGraph graph = new CallGraph(program);
+        boolean[] reached;
+        if (mainFunction != null) {
+            reached = graph.reachable(mainFunction);
         } else {
-            ArrayList<NodeType> list = table.get(node.name);
-            list.add(node);
-            table.put(node.name, list);
+            reached = new boolean[graph.size];
+            Arrays.fill(reached, true);
         }
-    }
-
-    private NodeType lookup(String name) {
-        if (!table.containsKey(name)) {
-            return null;
+        if (mainFunction == null || graph.calls(reached, Program.INPUT)) {
+            emitComment("code for input routine");
+            inputEntry = emitLoc;
+            emitRM(TMBuffer.ST, ac, retOF, fp, "store return");
+            emitRO(TMBuffer.IN, ac, 0, 0, "input");
+            emitRM(TMBuffer.LD, pc, retOF, fp, "return to caller");
         } else {
-            ArrayList<NodeType> list = table.get(name);
-            NodeType curr = list.get(list.size() - 1);
-            return curr;
+            skipped.add("input");
         }
-    }
-    // Main visit method that starts the code generation process.
-    public void visit(Absyn trees, TMCodeGen visitor) {
-
-        emitComment("Standard prelude:");
-        emitRM("LD", gp, 0, ac, "load gp with maxaddress");
-        emitRM("LDA", fp, 0, gp, "copy to gp to fp");
-        emitRM("ST", ac, 0, ac, "clear location 0");
-
-        // Generate i/o routines
-        emitComment("Jump around i/o routines here");
-        emitComment("code for input routine");
-        int savedLoc = emitSkip(1);
-        int funLoc = emitSkip(0);
-        NodeType node = new NodeType("input", "VOID", 0, funLoc);
-        insert(node);
-        emitRM("ST", 0, retOF, fp, "store return");
-        emitRO("IN", 0, 0, 0, "input");
-        emitRM("LD", 7, -1, 5, "return to caller");
-
-        emitComment("code for output routine");
-        int funLoc2 = emitSkip(0);
-        NodeType node2 = new NodeType("output", "-2", 0, funLoc2);
-        insert(node2);
-        emitRM("ST", 0, retOF, fp, "store return");
-        emitRM("LD", 0, initOF, fp, "load output value");
-        emitRO("OUT", 0, 0, 0, "output");
-        emitRM("LD", 7, -1, 5, "return to caller");
-        int savedLoc2 = emitSkip(0);
-        emitBackup(savedLoc);
-        emitRM_Abs("LDA", pc, savedLoc2, "jump around i/o code");
-        emitRestore();
-        emitComment("End of standard prelude.");
 
-        globalOffset = initOF;
-        trees.accept(visitor, initOF, false);
-
-        //Main availibility check
-        if (mainEntry == 0) {
-            emitRO("HALT", 0, 0, 0, "");
+        if (mainFunction == null || graph.calls(reached, Program.OUTPUT)) {
+            emitComment("code for output routine");
+            outputEntry = emitLoc;
+            emitRM(TMBuffer.ST, ac, retOF, fp, "store return");
+            emitRM(TMBuffer.LD, ac, initOF, fp, "load output value");
+            emitRO(TMBuffer.OUT, ac, 0, 0, "output");
+            emitRM(TMBuffer.LD, pc, retOF, fp, "return to caller");
+        } else {
+            skipped.add("output");
         }
 
-        emitRM("ST", fp, globalOffset + ofpFO, fp, "push ofp");
-        emitRM("LDA", fp, globalOffset, fp, "push frame");
-        emitRM("LDA", ac, 1, pc, "load ac with ret ptr");
-        emitRM_Abs("LDA", pc, mainEntry, "jump to main loc");
-        emitRM("LD", fp, ofpFO, fp, "pop frame");
-
-        emitComment("End of Execution");
-        emitRO("HALT", 0, 0, 0, "");
-    }
-
-    final static int SPACES = 4;
-
-//visits an ExpList node in an abstract syntax tree, iterates through the list of expressions, and generates code to handle function call arguments by parsing expression information and adding appropriate offsets to the callArgs list.
-    public void visit(ExpList expList, int level, boolean isAddr) {
-        globalOffset = level;
-
-        while (expList != null) {
-            expList.head.accept(this, globalOffset, isAddr);
-            if (expList.head.def != null) {
-                try {
-                    int temp = Integer.parseInt(expList.head.info);
-                    callArgs.add("" + (globalOffset + 1));
-                } catch (NumberFormatException e) {
-                    if (!expList.head.info.contains("[")) {
-                        NodeType n = lookup(expList.head.info);
-                        if (n != null) {
-                            if (n.def.contains("[")) {
-                                String temp = n.def.split("\\[")[1];
-                                temp = temp.split("]")[0];
-                                int i = Integer.parseInt(temp) - 1;
-                                while (i >= 0) {
-                                    int pos = Integer.parseInt(expList.head.def) + i;
-                                    callArgs.add(String.valueOf(pos));
-                                    i--;
-                                }
-                                
-                            } else {
-                                callArgs.add(expList.head.def);
-                            }
-                        } else {
-                            callArgs.add(expList.head.def);
-                        }
-                    } else {
-                        callArgs.add(expList.head.def);
-                    }
-
-                }
+        for (int i = 0; i < graph.size; i++) {
+            Function f = program.functions.get(i);
+            if (reached[i]) {
+                function(f);
+                generated++;
+            } else {
+                skipped.add(f.name);
             }
-            expList = expList.tail;
-        }
-    }
-
-    public void visit(AssignExp exp, int level, boolean isAddr) {
-        emitComment("processing var: " + exp.name.info);
-        flag = false;
-        exp.type.accept(this, level, true);
-        exp.name.accept(this, level, false);
-        if (exp.num != null) {
-            exp.num.accept(this, level, isAddr);
         }
-        globalOffset--;
-        flag = true;
-        NodeType node;
-        if (exp.num != null) {
-            try {
-                if (Integer.parseInt(exp.num.info) < 1) {
-                    emitRO("HALT", 0, 0, 0, "");
-                } else {
-                    globalOffset = globalOffset - Integer.parseInt(exp.num.info) + 1;
-                }
-            } catch (NumberFormatException e) {
 
+        for (int i = 0; i < calls; i++) {
+            int f = callee[i];
+            int entry = f >= 0 ? entries[f] : f == Program.INPUT ? inputEntry : f == Program.OUTPUT ? outputEntry : -1;
+            if (entry < 0) {
+                patchRM(callAt[i], TMBuffer.HALT, 0, 0, 0, "undefined function");
+            } else {
+                patchRM_Abs(callAt[i], TMBuffer.LDA, pc, entry, code.commentText(code.comment[callAt[i]]));
             }
-            node = new NodeType(exp.name.info, exp.type.def + "[" + exp.num.info + "]", globalLevel,
-                    Integer.parseInt(exp.name.def));
-        } else {
-            node = new NodeType(exp.name.info, exp.type.def, globalLevel, Integer.parseInt(exp.name.def));
         }
-        insert(node);
-        emitComment("<- varDec");
     }
 
-    public void visit(IfExp exp, int level, boolean isAddr) {
-        emitComment("-> if");
-        exp.test.accept(this, level, isAddr);
-        int savedLoc = emitSkip(1);
-
-        exp.thenpart.accept(this, level, isAddr);
-        int savedLoc2 = emitSkip(1);
-
-        emitBackup(savedLoc);
-        if (exp.test.info.equals("true")) {
-            emitRM("LDA", pc, savedLoc2 - savedLoc, pc, "if: jump to else");
-        } else {
-            emitRM(exp.test.def, ac, savedLoc2 - savedLoc, pc, "if: jump to else");
-        }
-        emitRestore();
-
-        if (exp.elsepart != null) {
-            exp.elsepart.accept(this, level, isAddr);
+    // Jumps to the entry of a function or routine, by its index as a CALL names it, patched once every
+    // function has its address.
+    private void call(int function, String c) {
+        if (calls == callAt.length) {
+            callAt = Arrays.copyOf(callAt, calls * 2);
+            callee = Arrays.copyOf(callee, calls * 2);
         }
-
-        int savedLoc3 = emitSkip(0);
-        emitBackup(savedLoc2);
-        emitRM("LDA", pc, savedLoc3 - savedLoc2 - 1, pc, "jump to end");
-        emitRestore();
-        emitComment("<- if");
-    }
-
-    public void visit(IntExp exp, int level, boolean isAddr) {
-        emitComment("-> constant");
-        emitRM("LDC", 0, Integer.parseInt(exp.value), 0, "load constant");
-        emitComment("<- constant");
-        emitRM("ST", 0, level, fp, "op: push left");
-        globalOffset--;
+        callAt[calls] = emitSkip(1);
+        callee[calls] = function;
+        code.set(callAt[calls], TMBuffer.HALT, 0, 0, 0, 0, c);
+        calls++;
     }
 
-    public void visit(OpExp exp, int level, boolean isAddr) {
-        switch (exp.op) {
-        case OpExp.PLUS:
-            exp.info = "+";
-            break;
-        case OpExp.MINUS:
-            exp.info = "-";
-            break;
-        case OpExp.TIMES:
-            exp.info = "*";
-            break;
-        case OpExp.OVER:
-            exp.info = "/";
-            break;
-        case OpExp.EQ:
-            exp.info = "==";
-            break;
-        case OpExp.LT:
-            exp.info = "<";
-            break;
-        case OpExp.GT:
-            exp.info = ">";
-            break;
-        case OpExp.LE:
-            exp.info = "<=";
-            break;
-        case OpExp.GE:
-            exp.info = ">=";
-            break;
-        case OpExp.NEQ:
-            exp.info = "!=";
-            break;
-        case OpExp.ERROR:
-            break;
-        default:
-            break;
+    private void function(Function f) {
+        fn = f;
+        emitComment("processing function: " + f.name);
+        entries[f.index] = emitLoc;
+        allocate(f);
+        labelAddr = new int[f.labels];
+        Arrays.fill(labelAddr, -1);
+        jumps = 0;
+
+        emitRM(TMBuffer.ST, ac, retOF, fp, "save return address");
+        for (Instr instr : f.code) {
+            note = instr.toString();
+            instruction(instr);
+        }
+        for (int i = 0; i < jumps; i++) {
+            int loc = jumpAt[i];
+            patchRM_Abs(loc, code.op[loc], code.r[loc], labelAddr[code.d[loc]],
+                    code.commentText(code.comment[loc]));
         }
+        emitComment("<- funExp");
     }
 
-    public void visit(RepeatExp exp, int level, boolean isAddr) {
-        emitComment("-> while"); // Start of while loop processing
-        int top = emitSkip(0); // Remember the top of the loop for later jump back
-        exp.test.accept(this, level, isAddr);
-        int savedLoc = emitSkip(1); // Skip a spot for the jump instruction if the condition is false
-    
-        if (exp.exps != null) {
-            exp.exps.accept(this, level, isAddr);
+    /* Linear scan register allocation. Each temporary is live from its definition to its last use, or to the end
+       of the last block it is live out of. Temporaries are given a free register in order of definition, and
+       those that are never used get ac, which every translation only uses in passing. */
+    private void allocate(Function f) {
+        int n = f.code.size();
+        int[] end = new int[f.temps];
+        int[] callsBefore = new int[n + 1];
+        Arrays.fill(end, -1);
+        int[] u = new int[2];
+        for (int i = 0; i < n; i++) {
+            Instr instr = f.code.get(i);
+            for (int k = instr.uses(u) - 1; k >= 0; k--) {
+                end[u[k]] = i;
+            }
+            callsBefore[i + 1] = callsBefore[i] + (instr.op == Instr.CALL ? 1 : 0);
         }
-    
-        int savedLoc3 = emitSkip(0);
-        emitRM("LDA", pc, top - savedLoc3 - 1, pc, "while: absolute jump to test");
-    
-        int savedLoc2 = emitSkip(0);
-        emitBackup(savedLoc);
-        emitRM(exp.test.def, ac, savedLoc2 - savedLoc - 1, pc, "while: jump to end"); // Insert the jump instruction if the condition is false
-        emitRestore(); // Restore the current location
-        emitComment("<- while");
-    }
-//Visits a VarExp node in an abstract syntax tree, handles array indexing and bounds checking, generates code to load variable/array element addresses or values based on the 'isAddr' flag, and updates the VarExp node's 'def' field.
-    public void visit(VarExp exp, int level, boolean isAddr) {
-        if (flag) {
-            if (exp.exprs != null) {
-                exp.exprs.accept(this, level, isAddr);
-                exp.info = exp.info + "[" + exp.exprs.info + "]";
+        // A temporary live out of a block stays live to its end, which carries it round loops.
+        CFG cfg = new CFG(f);
+        Liveness live = new Liveness(cfg);
+        for (int b = 0; b < cfg.blocks; b++) {
+            int at = live.base(b);
+            for (int w = 0; w < live.words; w++) {
+                for (long bits = live.out[at + w]; bits != 0; bits &= bits - 1) {
+                    int t = live.name[(w << 6) + Long.numberOfTrailingZeros(bits)];
+                    if (t < f.temps) {
+                        end[t] = Math.max(end[t], cfg.end[b] - 1);
+                    }
+                }
             }
-            NodeType var = lookup(exp.name);
-            if (var != null) {
-                int pos = 0;
-
-                emitComment("looking up id: " + exp.name);
-                if (!var.def.contains("[") && exp.exprs != null) {
-                    emitRO("HALT", 0, 0, 0, "out of bounds");
-                } else if (var.def.contains("[") && exp.exprs != null) {
-
-                    String temp = var.def.split("\\[")[1];
-                    emitComment("-> array bounds check");
-                    try {
-                        if (Integer.parseInt(exp.exprs.info) < 0) {
-                            emitRO("HALT", 0, 0, 0, "out of bounds");
-                        } else if (Integer.parseInt(exp.exprs.info) >= Integer.parseInt(temp.split("]")[0])) {
-                            if (Integer.parseInt(temp.split("]")[0]) == -1) {
-                                if (Integer.parseInt(exp.exprs.info) > 10) {
-                                    emitRO("HALT", 0, 0, 0, "out of bounds");
-                                }
-                            } else {
-                                emitRO("HALT", 0, 0, 0, "out of bounds");
-                            }
-                        }
-                        pos = Integer.parseInt(exp.exprs.info);
-                    } catch (NumberFormatException e) {
-
-                        int arrSize = Integer.parseInt(temp.split("]")[0]);
-                        int accessSize = Integer.parseInt(exp.exprs.def);
-                        emitRM("LDC", ac, arrSize, 0, "load constant");
-                        emitRM("LD", ac1, accessSize, fp, "load id value");
-                        emitRO("SUB", ac, ac1, ac, "op -");
-                        emitRM("JGT", ac, 1, pc, "bouns check: jump");
-                        emitRO("HALT", 0, 0, 0, "out of bounds");
-
+        }
+        // The spill slots go below the locals, so those are laid out first.
+        layout.run(f, cfg, live, end);
+
+        reg = new int[f.temps];
+        slot = new int[f.temps];
+        spills = 0;
+        int spilled = 0;
+        int[] owner = new int[temps.length];
+        int[] slotOwner = new int[4]; // temporary in each spill slot
+        Arrays.fill(owner, -1);
+        for (int i = 0; i < n; i++) {
+            int t = f.code.get(i).dst;
+            if (t < 0) {
+                continue;
+            }
+            if (end[t] < 0) {
+                reg[t] = ac;
+                continue;
+            }
+            reg[t] = -1;
+            if (callsBefore[end[t]] - callsBefore[i + 1] == 0) {
+                for (int r = 0; r < temps.length; r++) {
+                    if (owner[r] < 0 || end[owner[r]] <= i) {
+                        owner[r] = t;
+                        reg[t] = temps[r];
+                        break;
                     }
-                    emitComment("<- array bounds check");
                 }
-                if (isAddr) {
-                    emitRM("LDA", 0, var.offset - pos, fp, "load id address");
-                    emitComment("<- id");
-                    emitRM("ST", 0, level, fp, "op: push left");
-                } else if (!isAddr) {
-                    emitRM("LD", 0, var.offset - pos, fp, "load id value");
-                    emitComment("<- id");
-                    emitRM("ST", 0, level, fp, "op: push left");
+            }
+            if (reg[t] < 0) {
+                int k = 0;
+                while (k < spills && end[slotOwner[k]] > i) {
+                    k++;
+                }
+                if (k == spills) {
+                    if (spills == slotOwner.length) {
+                        slotOwner = Arrays.copyOf(slotOwner, spills * 2);
+                    }
+                    spills++;
                 }
-                globalOffset = level - 1;
+                slotOwner[k] = t;
+                slot[t] = -(f.frameSize + k);
+                spilled++;
             }
         }
-        exp.def = "" + level;
-    }
+        callBase = -(f.frameSize + spills);
 
-    public void visit(TypeExp exp, int level, boolean isAddr) {
-    }
-
-    public void visit(FunExp exp, int level, boolean isAddr) {
-        flag = false;
-        exp.type.accept(this, level, isAddr);
-        exp.name.accept(this, level, isAddr);
-        flag = true;
-
-        if (exp.name.info.equals("main")) {
-            int loc = emitSkip(0);
-            mainEntry = loc + 1;
+        int unshared = 2 + spilled;
+        for (Var v : f.params) {
+            unshared += v.slots();
         }
-
-        globalLevel++;
-        int funlevel = globalLevel;
-        funct = exp.name.info;
-        exp.funaddr = emitLoc;
-        emitComment("processing function: " + exp.name.info);
-        emitComment("jump around function body here");
-        int savedLoc = emitSkip(1);
-        int funLoc = emitSkip(0);
-        exp.funaddr = funLoc;
-        emitRM("ST", 0, retOF, fp, "save return address");
-
-        if (exp.params != null) {
-            exp.params.accept(this, initOF, true);
+        for (Var v : f.locals) {
+            unshared += v.slots();
         }
+        frames.append("  frame of ").append(f.name).append(": ").append(f.frameSize + spills).append(" slots, ")
+                .append(spills).append(" of them for spills, ").append(unshared).append(" without sharing\n");
+        frameSlots += f.frameSize + spills;
+        unsharedSlots += unshared;
+    }
 
-        NodeType node = new NodeType(exp.name.name, exp.params.info, globalLevel - 1, funLoc);
-        insert(node);
+    private int baseReg(Var var) {
+        return var.kind == Var.GLOBAL ? gp : fp;
+    }
 
-        if (exp.compound != null) {
-            emitComment("-> compound statement");
-            exp.compound.accept(this, globalOffset, false);
-            emitComment("<- compound statement");
+    // Register holding temporary t, loaded into scratch first when t is spilled.
+    private int src(int t, int scratch) {
+        if (reg[t] >= 0) {
+            return reg[t];
         }
-
-        emitRM("LD", pc, -1, fp, "return back to the caller");
-        int savedLoc2 = emitSkip(0);
-        emitBackup(savedLoc);
-        emitRM("LDA", pc, (savedLoc2 - 1 - savedLoc), pc, "jump around func body");
-        emitRestore();
-        deleteLevel(globalLevel);
-        globalLevel= globalLevel-1;
-        emitComment("<- funExp");
+        emitRM(TMBuffer.LD, scratch, slot[t], fp, "load spilled t" + t);
+        return scratch;
     }
 
-    public void visit(ParListExp exp, int level, boolean isAddr) {
-        exp.paramlist.accept(this, globalOffset, isAddr);
-        exp.param.accept(this, level, isAddr);
-        exp.info = exp.paramlist.info + ", " + exp.param.info;
+    // Register to compute temporary t into.
+    private int dst(int t) {
+        return reg[t] >= 0 ? reg[t] : ac;
+    }
 
+    // Stores a spilled temporary once it has been computed into r.
+    private void spill(int t, int r) {
+        if (reg[t] < 0) {
+            emitRM(TMBuffer.ST, r, slot[t], fp, "spill t" + t);
+        }
     }
 
-    public void visit(ParamExp exp, int level, boolean isAddr) {
-        if (!isAddr)
-            flag = false;
-        exp.type.accept(this, level, isAddr);
-        exp.name.accept(this, level, isAddr);
-        NodeType n = lookup(exp.name.name);
-        if (n == null) {
-            if (exp.type.def.contains("-1")) {
-                globalOffset = globalOffset - 9;
-            }
-            NodeType node = new NodeType(exp.name.info, exp.type.def, globalLevel, Integer.parseInt(exp.name.def));
-            insert(node);
+    private static int jumpOp(int rel) {
+        switch (rel) {
+        case Instr.EQ:
+            return TMBuffer.JEQ;
+        case Instr.NE:
+            return TMBuffer.JNE;
+        case Instr.LT:
+            return TMBuffer.JLT;
+        case Instr.LE:
+            return TMBuffer.JLE;
+        case Instr.GT:
+            return TMBuffer.JGT;
+        default:
+            return TMBuffer.JGE;
         }
-        flag = true;
-        exp.info = exp.name.def;
-        globalOffset--;
     }
 
-    public void visit(CompExp exp, int level, boolean isAddr) {
-        if (exp.first != null) {
-            exp.first.accept(this, level - 1, true);
+    private static int arithOp(int op) {
+        switch (op) {
+        case Instr.ADD:
+            return TMBuffer.ADD;
+        case Instr.SUB:
+            return TMBuffer.SUB;
+        case Instr.MUL:
+            return TMBuffer.MUL;
+        default:
+            return TMBuffer.DIV;
         }
-        if (exp.second != null)
-            exp.second.accept(this, level - 2, false);
-
-        emitRM("LD", ac, level - 1, fp, "load left");
-        emitRM("LD", ac1, level - 2, fp, "load right");
-        emitRM("ST", ac1, ac, ac, "store in ac1");
-        emitRM("ST", ac1, level, fp, "assign: store value");
-        exp.info = "true";
     }
 
-    public void visit(ReturnExp exp, int level, boolean isAddr) {
-        emitComment("-> return");
-        if (exp.exps != null) {
-            exp.exps.accept(this, level, isAddr);
+    // Jumps to a label of the current function; forward jumps are patched when the function is done.
+    private void jump(int op, int r, int label) {
+        if (labelAddr[label] >= 0) {
+            emitRM_Abs(op, r, labelAddr[label], note);
+            return;
         }
-        emitRM("LD", pc, -1, fp, "return back to the caller");
-        emitComment("<- return");
+        if (jumps == jumpAt.length) {
+            jumpAt = Arrays.copyOf(jumpAt, jumps * 2);
+        }
+        jumpAt[jumps++] = emitLoc;
+        // The label is kept in d until the patch.
+        emitRM(op, r, label, pc, note);
     }
 
-    public void visit(MathExp exp, int level, boolean isAddr) {
-        emitComment("-> mathExp");
-        if (inParam == 1) {
-            inParam++;
+    /* The arguments are already in this frame's parameter slots and the return address stays in its slot, so
+       the callee takes the frame over and returns straight to this function's caller. */
+    private void tailCall(Instr instr) {
+        emitComment("-> tail call of function: " + instr.callee);
+        if (instr.function == fn.index) {
+            // The return address is already saved; skip the store at the entry.
+            emitRM_Abs(TMBuffer.LDA, pc, entries[fn.index] + 1, "jump to the body of this function");
+        } else {
+            emitRM(TMBuffer.LD, ac, retOF, fp, "reload return address");
+            call(instr.function, "relative jump to function entry");
         }
-        exp.lhs.accept(this, level - 1, false);
-        exp.op.accept(this, level, isAddr);
-        exp.rhs.accept(this, level - 2, false);
-        emitRM("LD", ac, level - 1, fp, "load right");
-        emitRM("LD", ac1, level - 2, fp, "load left");
-
-        switch (exp.op.info) {
-        case "+":
-            emitRO("ADD", ac, ac, ac1, "op +");
-            exp.info = "true";
+    }
+
+    private void instruction(Instr instr) {
+        int rd, ra, rb;
+        switch (instr.op) {
+        case Instr.CONST:
+            rd = dst(instr.dst);
+            emitRM(TMBuffer.LDC, rd, instr.imm, 0, note);
+            spill(instr.dst, rd);
+            break;
+        case Instr.LOAD:
+            rd = dst(instr.dst);
+            emitRM(TMBuffer.LD, rd, instr.var.offset - instr.imm, baseReg(instr.var), note);
+            spill(instr.dst, rd);
             break;
-        case "-":
-            emitRO("SUB", ac, ac, ac1, "op -");
-            exp.info = "true";
+        case Instr.STORE:
+            ra = src(instr.a, ac);
+            emitRM(TMBuffer.ST, ra, instr.var.offset - instr.imm, baseReg(instr.var), note);
             break;
-        case "*":
-            emitRO("MUL", ac, ac, ac1, "op *");
-            exp.info = "true";
+        case Instr.ADDR:
+            rd = dst(instr.dst);
+            emitRM(TMBuffer.LDA, rd, instr.var.offset, baseReg(instr.var), note);
+            spill(instr.dst, rd);
             break;
-        case "/":
-            emitRO("DIV", ac, ac, ac1, "op /");
-            exp.info = "true";
+        case Instr.LOADI:
+            ra = src(instr.a, ac);
+            rd = dst(instr.dst);
+            emitRM(TMBuffer.LD, rd, 0, ra, note);
+            spill(instr.dst, rd);
             break;
-        case "==":
-            emitRO("SUB", ac, ac, ac1, "op ==");
-            exp.info = "false";
-            exp.def = "JNE";
+        case Instr.STOREI:
+            ra = src(instr.a, ac);
+            rb = src(instr.b, ac1);
+            emitRM(TMBuffer.ST, rb, 0, ra, note);
             break;
-        case "<":
-            emitRO("SUB", ac, ac, ac1, "op <");
-            exp.info = "false";
-            exp.def = "JGT";
+        case Instr.ADD:
+        case Instr.SUB:
+        case Instr.MUL:
+        case Instr.DIV:
+            ra = src(instr.a, ac);
+            rb = src(instr.b, ac1);
+            rd = dst(instr.dst);
+            emitRO(arithOp(instr.op), rd, ra, rb, note);
+            spill(instr.dst, rd);
             break;
-        case ">":
-            emitRO("SUB", ac, ac, ac1, "op >");
-            exp.info = "false";
-            exp.def = "JLT";
+        case Instr.SET:
+            ra = src(instr.a, ac);
+            rd = dst(instr.dst);
+            emitRM(jumpOp(Instr.negate(instr.imm)), ra, 2, pc, note);
+            emitRM(TMBuffer.LDC, rd, 1, 0, "true case");
+            emitRM(TMBuffer.LDA, pc, 1, pc, "unconditional jmp");
+            emitRM(TMBuffer.LDC, rd, 0, 0, "false case");
+            spill(instr.dst, rd);
             break;
-        case "<=":
-            emitRO("SUB", ac, ac, ac1, "op <=");
-            exp.info = "false";
-            exp.def = "JGE";
+        case Instr.CHECK:
+            ra = src(instr.a, ac);
+            emitRM(TMBuffer.JGE, ra, 1, pc, "bounds check: index >= 0");
+            emitRO(TMBuffer.HALT, 0, 0, 0, "out of bounds");
+            if (instr.imm != -1) {
+                emitRM(TMBuffer.LDC, ac1, instr.imm, 0, "load array size");
+                emitRO(TMBuffer.SUB, ac1, ra, ac1, "index - size");
+                emitRM(TMBuffer.JLT, ac1, 1, pc, "bounds check: index < size");
+                emitRO(TMBuffer.HALT, 0, 0, 0, "out of bounds");
+            }
             break;
-        case ">=":
-            emitRO("SUB", ac, ac, ac1, "op >=");
-            exp.info = "false";
-            exp.def = "JLE";
+        case Instr.ARG:
+            ra = src(instr.a, ac);
+            emitRM(TMBuffer.ST, ra, (instr.tail ? 0 : callBase) + initOF - instr.imm, fp, note);
             break;
-        case "!=":
-            emitRO("SUB", ac, ac, ac1, "op !=");
-            exp.info = "false";
-            exp.def = "JEQ";
+        case Instr.CALL:
+            if (instr.tail) {
+                tailCall(instr);
+                break;
+            }
+            emitComment("-> call of function: " + instr.callee);
+            emitRM(TMBuffer.ST, fp, callBase + ofpFO, fp, "store current fp");
+            emitRM(TMBuffer.LDA, fp, callBase, fp, "push new frame");
+            emitRM(TMBuffer.LDA, ac, 1, pc, "save return in ac");
+            call(instr.function, "relative jump to function entry");
+            emitRM(TMBuffer.LD, fp, ofpFO, fp, "pop current frame");
+            if (instr.dst >= 0 && reg[instr.dst] != ac) {
+                rd = dst(instr.dst);
+                if (rd != ac) {
+                    emitRM(TMBuffer.LDA, rd, 0, ac, "move return value");
+                }
+                spill(instr.dst, rd);
+            }
+            emitComment("<- call");
+            break;
+        case Instr.RET:
+            if (instr.a >= 0) {
+                ra = src(instr.a, ac);
+                if (ra != ac) {
+                    emitRM(TMBuffer.LDA, ac, 0, ra, "load return value");
+                }
+            }
+            emitRM(TMBuffer.LD, pc, retOF, fp, "return back to the caller");
+            break;
+        case Instr.JUMP:
+            jump(TMBuffer.LDA, pc, instr.label);
+            break;
+        case Instr.JCOND:
+            ra = src(instr.a, ac);
+            jump(jumpOp(instr.imm), ra, instr.label);
+            break;
+        case Instr.LABEL:
+            labelAddr[instr.label] = emitLoc;
             break;
         default:
             break;
         }
-        emitRM("ST", ac, level, fp, "store value from math");
-        inParam--;
-        if (inParam == 1) {
-            callArgs.add(String.valueOf(level));
-        }
-        emitComment("<- mathExp");
     }
 
-//Handles the visitation of a CallExp node in an abstract syntax tree, generates code for function calls, including passing arguments and setting up the activation record.
-    public void visit(CallExp exp, int level, boolean isAddr) {
-        callArgs.clear();
-
-        flag = false;
-        exp.name.accept(this, level, isAddr);
-        flag = true;
-        emitComment("-> call of function: " + exp.name.name);
-
-        if (exp.args != null) {
-            inParam = 1;
-            exp.args.accept(this, level, false);
-            inParam = 0;
-            int j = 0;
-
-            int i = callArgs.size() - 1;
-            while (i >= 0) {
-                emitRM("LD", ac, Integer.parseInt(callArgs.get(i)), fp, "load value to ac");
-                emitRM("ST", ac, level + initOF - j, fp, "store arg value");
-                j++;
-                i--;
-            }
-            
-        }
-
-        NodeType n = lookup(exp.name.name);
-        emitRM("ST", fp, level + ofpFO, fp, "store current fp");
-        emitRM("LDA", fp, level, fp, "push new frame");
-        emitRM("LDA", ac, 1, pc, "save return in ac");
-
-        int savedLoc = emitSkip(0);
-
-        emitRM("LDA", pc, (n.offset - savedLoc - 1), pc, "relative jump to function entry");
-
-        emitRM("LD", fp, ofpFO, fp, "pop current frame");
-        emitRM("ST", 0, level, fp, "store return");
-
-        exp.def = String.valueOf(level);
-
-        emitComment("<- call");
-        callArgs.clear();
+    public void report(PrintStream out) {
+        out.println("Code generation: " + generated + " functions reachable from main, " + skipped.size()
+                + " functions and routines left out" + (skipped.isEmpty() ? "" : ": " + String.join(", ", skipped)));
+        out.println("Frames: " + frameSlots + " slots in all, " + unsharedSlots
+                + " with a slot for every variable and spilled temporary");
+        out.println("Locals: " + layout.after + " slots by live range, " + layout.before + " by block scope");
+        out.print(frames);
     }
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,332 @@
+/*
+  File Name: TMMachine.java
+
+  Description: Interpreter for the Tiny Machine (TM) code produced by TMCodeGen. The program is decoded into
+    primitive int arrays (opcode, r, s, t, d) and run by a single dispatch loop that allocates nothing per
+    instruction. IN reads integers from a buffered input stream and OUT collects its lines in a buffer that is
+    flushed when it fills, when the machine stops and before an IN that would have to wait for input. Programs can be loaded straight from a TMBuffer, a .tm text file or a .tmo object,
+    so many programs can be compiled and run inside one JVM.
+
+  Execution:
+    java -classpath ./java-cup-bin/java-cup-11b.jar:. TMMachine file.tm < input
+    java -classpath ./java-cup-bin/java-cup-11b.jar:. TMMachine file.tmo < input
+*/
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+public class TMMachine {
+  // Stop reasons, as reported by the original TM simulator.
+  public final static int OKAY = 0;
+  public final static int HALTED = 1;
+  public final static int IMEM_ERR = 2;
+  public final static int DMEM_ERR = 3;
+  public final static int ZERO_DIVIDE = 4;
+  public final static int IN_ERR = 5;
+  public final static int STEP_LIMIT = 6;
+
+  public final static String[] STATUS = { "OK", "Halted", "Instruction Memory Fault", "Data Memory Fault",
+      "Division by 0", "Input Error", "Step Limit" };
+
+  public final static int DADDR_SIZE = 1024;
+  final static int NO_OF_REGS = 8;
+  final static int PC_REG = 7;
+
+  int[] op, r, s, t, d; // decoded instruction memory
+  int[] dMem;
+  int[] reg = new int[NO_OF_REGS];
+  public int entry;      // address execution starts at
+  public long steps;     // instructions executed by the last run
+  public long stepLimit = Long.MAX_VALUE;
+
+  InputStream in;
+  OutputStream out;
+  byte[] outBuf = new byte[8192];
+  int outLen;
+
+  public TMMachine(int[] op, int[] r, int[] s, int[] t, int[] d, int dataSize) {
+    this.op = op;
+    this.r = r;
+    this.s = s;
+    this.t = t;
+    this.d = d;
+    this.dMem = new int[dataSize];
+  }
+
+  /* Decodes the instructions of a code buffer; empty slots become HALT. */
+  public static TMMachine fromBuffer(TMBuffer code, int dataSize) {
+    int n = code.size;
+    int[] op = Arrays.copyOf(code.op, n);
+    for (int i = 0; i < n; i++) {
+      if (op[i] == TMBuffer.EMPTY) {
+        op[i] = TMBuffer.HALT;
+      }
+    }
+    return new TMMachine(op, Arrays.copyOf(code.r, n), Arrays.copyOf(code.s, n), Arrays.copyOf(code.t, n),
+        Arrays.copyOf(code.d, n), dataSize);
+  }
+
+  /* Parses the text listing written by TMBuffer (or any TM assembly file); lines starting with '*' are comments. */
+  public static TMMachine fromText(String text, int dataSize) {
+    TMBuffer code = new TMBuffer();
+    int pos = 0;
+    int len = text.length();
+    int lineNo = 0;
+    while (pos < len) {
+      int end = text.indexOf('\n', pos);
+      if (end < 0) {
+        end = len;
+      }
+      lineNo++;
+      String line = text.substring(pos, end).trim();
+      pos = end + 1;
+      if (line.isEmpty() || line.charAt(0) == '*') {
+        continue;
+      }
+      int colon = line.indexOf(':');
+      if (colon < 0) {
+        throw new IllegalArgumentException("line " + lineNo + ": missing ':'");
+      }
+      int loc = Integer.parseInt(line.substring(0, colon).trim());
+      int i = colon + 1;
+      while (i < line.length() && Character.isWhitespace(line.charAt(i)))
+        i++;
+      int start = i;
+      while (i < line.length() && Character.isLetter(line.charAt(i)))
+        i++;
+      int opcode = TMBuffer.opcode(line.substring(start, i).toUpperCase());
+      int[] f = new int[3];
+      int nf = 0;
+      // Read the three numeric fields: r,s,t for register-only and r,d(s) for register-memory instructions.
+      while (nf < 3 && i < line.length()) {
+        char c = line.charAt(i);
+        if (c == '-' || Character.isDigit(c)) {
+          int j = i + 1;
+          while (j < line.length() && Character.isDigit(line.charAt(j)))
+            j++;
+          f[nf++] = Integer.parseInt(line.substring(i, j));
+          i = j;
+        } else if (c == ',' || c == '(' || c == ')' || c == ' ') {
+          i++;
+        } else {
+          break;
+        }
+      }
+      if (nf < 3) {
+        throw new IllegalArgumentException("line " + lineNo + ": bad operands");
+      }
+      if (TMBuffer.isRO(opcode)) {
+        code.set(loc, opcode, f[0], f[1], f[2], 0, "");
+      } else {
+        code.set(loc, opcode, f[0], f[2], 0, f[1], "");
+      }
+    }
+    return fromBuffer(code, dataSize);
+  }
+
+  /* Loads a .tmo object through TMObject, anything else as a text listing. */
+  public static TMMachine fromFile(String fileName, int dataSize) throws IOException {
+    if (fileName.endsWith(".tmo")) {
+      return TMObject.load(fileName);
+    }
+    String text = new String(Files.readAllBytes(Paths.get(fileName)), StandardCharsets.UTF_8);
+    return fromText(text, dataSize);
+  }
+
+  private void reset() {
+    Arrays.fill(reg, 0);
+    Arrays.fill(dMem, 0);
+    dMem[0] = dMem.length - 1;
+    reg[PC_REG] = entry;
+    steps = 0;
+    outLen = 0;
+  }
+
+  /* Reads the next integer from the input, skipping whitespace. Returns false at end of input. */
+  private boolean readInt(int[] value) throws IOException {
+    int c = in.read();
+    while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+      c = in.read();
+    }
+    boolean neg = false;
+    if (c == '-' || c == '+') {
+      neg = c == '-';
+      c = in.read();
+    }
+    if (c < '0' || c > '9') {
+      return false;
+    }
+    int v = 0;
+    while (c >= '0' && c <= '9') {
+      v = v * 10 + (c - '0');
+      c = in.read();
+    }
+    value[0] = neg ? -v : v;
+    return true;
+  }
+
+  private void writeInt(int v) throws IOException {
+    if (outLen + 12 > outBuf.length) {
+      flushOut();
+    }
+    if (v < 0) {
+      outBuf[outLen++] = '-';
+    }
+    long x = Math.abs((long) v);
+    int start = outLen;
+    do {
+      outBuf[outLen++] = (byte) ('0' + (x % 10));
+      x /= 10;
+    } while (x != 0);
+    for (int i = start, j = outLen - 1; i < j; i++, j--) {
+      byte b = outBuf[i];
+      outBuf[i] = outBuf[j];
+      outBuf[j] = b;
+    }
+    outBuf[outLen++] = '\n';
+  }
+
+  private void flushOut() throws IOException {
+    out.write(outBuf, 0, outLen);
+    outLen = 0;
+  }
+
+  /* Runs the program from address 0 until it halts or faults and returns the stop reason. */
+  public int run(InputStream input, OutputStream output) throws IOException {
+    in = (input instanceof BufferedInputStream) ? input : new BufferedInputStream(input);
+    out = output;
+    reset();
+    int[] op = this.op, r = this.r, s = this.s, t = this.t, d = this.d;
+    int[] reg = this.reg, dMem = this.dMem;
+    int[] value = new int[1];
+    int iSize = op.length;
+    int dSize = dMem.length;
+    long count = 0;
+    long limit = stepLimit;
+    int status = OKAY;
+
+    while (status == OKAY) {
+      int pc = reg[PC_REG];
+      if (pc < 0 || pc >= iSize) {
+        status = IMEM_ERR;
+        break;
+      }
+      if (count == limit) {
+        status = STEP_LIMIT;
+        break;
+      }
+      count++;
+      reg[PC_REG] = pc + 1;
+      int rr = r[pc];
+      int a;
+      switch (op[pc]) {
+      case TMBuffer.HALT:
+        status = HALTED;
+        break;
+      case TMBuffer.IN:
+        if (outLen > 0 && in.available() == 0) {
+          // The input may wait on whoever reads the output, as in an interactive run.
+          flushOut();
+          out.flush();
+        }
+        if (readInt(value)) {
+          reg[rr] = value[0];
+        } else {
+          status = IN_ERR;
+        }
+        break;
+      case TMBuffer.OUT:
+        writeInt(reg[rr]);
+        break;
+      case TMBuffer.ADD:
+        reg[rr] = reg[s[pc]] + reg[t[pc]];
+        break;
+      case TMBuffer.SUB:
+        reg[rr] = reg[s[pc]] - reg[t[pc]];
+        break;
+      case TMBuffer.MUL:
+        reg[rr] = reg[s[pc]] * reg[t[pc]];
+        break;
+      case TMBuffer.DIV:
+        if (reg[t[pc]] == 0) {
+          status = ZERO_DIVIDE;
+        } else {
+          reg[rr] = reg[s[pc]] / reg[t[pc]];
+        }
+        break;
+      case TMBuffer.LD:
+        a = d[pc] + reg[s[pc]];
+        if (a < 0 || a >= dSize) {
+          status = DMEM_ERR;
+        } else {
+          reg[rr] = dMem[a];
+        }
+        break;
+      case TMBuffer.ST:
+        a = d[pc] + reg[s[pc]];
+        if (a < 0 || a >= dSize) {
+          status = DMEM_ERR;
+        } else {
+          dMem[a] = reg[rr];
+        }
+        break;
+      case TMBuffer.LDA:
+        reg[rr] = d[pc] + reg[s[pc]];
+        break;
+      case TMBuffer.LDC:
+        reg[rr] = d[pc];
+        break;
+      case TMBuffer.JLT:
+        if (reg[rr] < 0)
+          reg[PC_REG] = d[pc] + reg[s[pc]];
+        break;
+      case TMBuffer.JLE:
+        if (reg[rr] <= 0)
+          reg[PC_REG] = d[pc] + reg[s[pc]];
+        break;
+      case TMBuffer.JGT:
+        if (reg[rr] > 0)
+          reg[PC_REG] = d[pc] + reg[s[pc]];
+        break;
+      case TMBuffer.JGE:
+        if (reg[rr] >= 0)
+          reg[PC_REG] = d[pc] + reg[s[pc]];
+        break;
+      case TMBuffer.JEQ:
+        if (reg[rr] == 0)
+          reg[PC_REG] = d[pc] + reg[s[pc]];
+        break;
+      case TMBuffer.JNE:
+        if (reg[rr] != 0)
+          reg[PC_REG] = d[pc] + reg[s[pc]];
+        break;
+      default:
+        status = IMEM_ERR;
+        break;
+      }
+    }
+    steps = count;
+    flushOut();
+    out.flush();
+    return status;
+  }
+
+  static public void main(String argv[]) {
+    if (argv.length == 0) {
+      System.out.println("Usage: TMMachine file.tm|file.tmo");
+      return;
+    }
+    try {
+      TMMachine machine = fromFile(argv[0], DADDR_SIZE);
+      int status = machine.run(System.in, System.out);
+      if (status != HALTED) {
+        System.err.println("TM stopped: " + STATUS[status]);
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,264 @@
+/*
+  File Name: TMObject.java
+
+  Description: Binary TM object format (.tmo) with a writer fed from a TMBuffer and a memory-mapped loader.
+    All numbers are little-endian.
+
+    Header (32 bytes):
+      int   magic          'T' 'M' 'O' 0
+      int   version        currently 1
+      int   flags          bit 0 set when a debug section follows the code
+      int   entry          address of the first instruction to execute
+      int   dataSize       words of data memory the program expects
+      int   count          number of instruction slots
+      int   debugOffset    file offset of the debug section, 0 when absent
+      int   reserved
+
+    Code: count fixed-width 8 byte instructions
+      byte  opcode         TMBuffer opcode, 0xff for an empty slot
+      byte  r, s, t        register fields
+      int   d              displacement or constant
+
+    Debug section (optional):
+      int   poolSize, then poolSize strings as (int length, UTF-8 bytes)
+      int   comment id of every instruction slot
+      int   lineCount, then lineCount (int address, int comment id) comment lines
+
+  Execution:
+    java -classpath ./java-cup-bin/java-cup-11b.jar:. TMObject file.tmo
+  prints the text listing of an object file.
+*/
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+public class TMObject {
+  public final static int MAGIC = 'T' | ('M' << 8) | ('O' << 16);
+  public final static int VERSION = 1;
+  public final static int FLAG_DEBUG = 1;
+  final static int HEADER_SIZE = 32;
+  final static int INSTRUCTION_SIZE = 8;
+  final static int MAX_DATA_SIZE = 1 << 24; // words, 64 MB of data memory
+
+  /* Encodes the buffer; the debug section carries the comments so the text listing can be rebuilt. */
+  public static ByteBuffer encode(TMBuffer code, int entry, int dataSize, boolean debug) {
+    int count = code.size;
+    byte[][] pool = null;
+    int debugSize = 0;
+    if (debug) {
+      pool = new byte[code.pool.size()][];
+      debugSize = 4 + 4 * count + 4 + 8 * code.lines;
+      for (int i = 0; i < pool.length; i++) {
+        pool[i] = code.pool.get(i).getBytes(StandardCharsets.UTF_8);
+        debugSize += 4 + pool[i].length;
+      }
+    }
+    int codeEnd = HEADER_SIZE + count * INSTRUCTION_SIZE;
+    ByteBuffer buf = ByteBuffer.allocate(codeEnd + debugSize).order(ByteOrder.LITTLE_ENDIAN);
+    buf.putInt(MAGIC);
+    buf.putInt(VERSION);
+    buf.putInt(debug ? FLAG_DEBUG : 0);
+    buf.putInt(entry);
+    buf.putInt(dataSize);
+    buf.putInt(count);
+    buf.putInt(debug ? codeEnd : 0);
+    buf.putInt(0);
+    for (int i = 0; i < count; i++) {
+      buf.put((byte) code.op[i]);
+      buf.put((byte) code.r[i]);
+      buf.put((byte) code.s[i]);
+      buf.put((byte) code.t[i]);
+      buf.putInt(code.d[i]);
+    }
+    if (debug) {
+      buf.putInt(pool.length);
+      for (byte[] text : pool) {
+        buf.putInt(text.length);
+        buf.put(text);
+      }
+      for (int i = 0; i < count; i++) {
+        buf.putInt(code.op[i] == TMBuffer.EMPTY ? 0 : code.comment[i]);
+      }
+      buf.putInt(code.lines);
+      for (int i = 0; i < code.lines; i++) {
+        buf.putInt(code.lineAt[i]);
+        buf.putInt(code.lineText[i]);
+      }
+    }
+    buf.flip();
+    return buf;
+  }
+
+  public static void write(TMBuffer code, int entry, int dataSize, boolean debug, OutputStream out)
+      throws IOException {
+    ByteBuffer buf = encode(code, entry, dataSize, debug);
+    out.write(buf.array(), 0, buf.limit());
+    out.flush();
+  }
+
+  /* Decodes an object image back into a buffer, restoring the comments when the debug section is present. */
+  public static TMBuffer decode(ByteBuffer buf) throws IOException {
+    buf.order(ByteOrder.LITTLE_ENDIAN);
+    int count = checkHeader(buf);
+    int debugOffset = buf.getInt(24);
+    TMBuffer code = new TMBuffer();
+    code.reserve(count);
+    int[] op = code.op, r = code.r, s = code.s, t = code.t, d = code.d;
+    int pos = HEADER_SIZE;
+    for (int i = 0; i < count; i++, pos += INSTRUCTION_SIZE) {
+      int o = checkInstruction(i, buf.getInt(pos));
+      op[i] = (o == 0xff) ? TMBuffer.EMPTY : o;
+      r[i] = buf.get(pos + 1);
+      s[i] = buf.get(pos + 2);
+      t[i] = buf.get(pos + 3);
+      d[i] = buf.getInt(pos + 4);
+    }
+    if (debugOffset != 0) {
+      if (debugOffset < pos || debugOffset > buf.limit()) {
+        throw new IOException("debug section at " + debugOffset + " outside the file");
+      }
+      buf.position(debugOffset);
+      int poolSize = count(buf, 4);
+      // Ids in the file are positions in its pool; interning may number the strings differently.
+      int[] ids = new int[poolSize];
+      for (int i = 0; i < poolSize; i++) {
+        byte[] text = new byte[count(buf, 1)];
+        buf.get(text);
+        ids[i] = code.intern(new String(text, StandardCharsets.UTF_8));
+      }
+      need(buf, 4L * count);
+      for (int i = 0; i < count; i++) {
+        int id = buf.getInt();
+        if (op[i] != TMBuffer.EMPTY) {
+          code.comment[i] = ids[checkId(id, poolSize)];
+        }
+      }
+      int lines = count(buf, 8);
+      for (int i = 0; i < lines; i++) {
+        int at = buf.getInt();
+        int id = checkId(buf.getInt(), poolSize);
+        if (at < 0 || at > count) {
+          throw new IOException("comment line at " + at + " outside the " + count + " instructions");
+        }
+        code.addLine(at, code.commentText(ids[id]));
+      }
+    } else {
+      int empty = code.intern("");
+      for (int i = 0; i < count; i++) {
+        code.comment[i] = empty;
+      }
+    }
+    return code;
+  }
+
+  /* Validates the header and returns the instruction count. */
+  static int checkHeader(ByteBuffer buf) throws IOException {
+    if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC) {
+      throw new IOException("not a TM object file");
+    }
+    if (buf.getInt(4) != VERSION) {
+      throw new IOException("unsupported TM object version " + buf.getInt(4));
+    }
+    int count = buf.getInt(20);
+    if (count < 0 || HEADER_SIZE + (long) count * INSTRUCTION_SIZE > buf.limit()) {
+      throw new IOException("truncated TM object file");
+    }
+    int entry = buf.getInt(12);
+    if (entry < 0 || entry >= count) {
+      throw new IOException("entry point " + entry + " outside the " + count + " instructions");
+    }
+    int dataSize = buf.getInt(16);
+    if (dataSize <= 0 || dataSize > MAX_DATA_SIZE) {
+      throw new IOException("bad data size " + dataSize);
+    }
+    return count;
+  }
+
+  /* Reads a count of items of size bytes each that must all fit in the rest of the buffer. */
+  static int count(ByteBuffer buf, int size) throws IOException {
+    need(buf, 4);
+    int n = buf.getInt();
+    if (n < 0) {
+      throw new IOException("bad count " + n + " in debug section");
+    }
+    need(buf, (long) n * size);
+    return n;
+  }
+
+  static void need(ByteBuffer buf, long bytes) throws IOException {
+    if (bytes > buf.remaining()) {
+      throw new IOException("truncated debug section");
+    }
+  }
+
+  static int checkId(int id, int poolSize) throws IOException {
+    if (id < 0 || id >= poolSize) {
+      throw new IOException("bad comment id " + id + " in debug section");
+    }
+    return id;
+  }
+
+  /* Checks the first word of instruction i, which holds its opcode and registers, and returns the opcode
+     byte: an opcode TMBuffer knows or 0xff for an empty slot, and registers 0-7. */
+  static int checkInstruction(int i, int word) throws IOException {
+    int o = word & 0xff;
+    if (o != 0xff && o >= TMBuffer.NAMES.length) {
+      throw new IOException("bad opcode " + o + " in instruction " + i);
+    }
+    if ((word & 0xf8f8f800) != 0) {
+      throw new IOException("bad register in instruction " + i);
+    }
+    return o;
+  }
+
+  public static MappedByteBuffer map(String fileName) throws IOException {
+    try (FileChannel ch = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+      return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+    }
+  }
+
+  /* Maps the file, copies the whole code section out of the mapping in one bulk read and decodes it into the
+     machine's instruction arrays, checking every instruction on the way, so a corrupt file fails here with an
+     IOException rather than in the middle of a run. */
+  public static TMMachine load(String fileName) throws IOException {
+    MappedByteBuffer buf = map(fileName);
+    buf.order(ByteOrder.LITTLE_ENDIAN);
+    int count = checkHeader(buf);
+    int entry = buf.getInt(12);
+    int dataSize = buf.getInt(16);
+    int[] words = new int[count * (INSTRUCTION_SIZE / 4)];
+    buf.position(HEADER_SIZE);
+    buf.asIntBuffer().get(words);
+    int[] op = new int[count], r = new int[count], s = new int[count], t = new int[count], d = new int[count];
+    for (int i = 0, w = 0; i < count; i++, w += 2) {
+      int word = words[w];
+      int o = checkInstruction(i, word);
+      op[i] = (o == 0xff) ? TMBuffer.HALT : o;
+      r[i] = (word >> 8) & 0xff;
+      s[i] = (word >> 16) & 0xff;
+      t[i] = word >>> 24;
+      d[i] = words[w + 1];
+    }
+    TMMachine machine = new TMMachine(op, r, s, t, d, dataSize);
+    machine.entry = entry;
+    return machine;
+  }
+
+  static public void main(String argv[]) {
+    if (argv.length == 0) {
+      System.out.println("Usage: TMObject file.tmo");
+      return;
+    }
+    try {
+      decode(map(argv[0])).writeText(System.out);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
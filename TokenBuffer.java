@@ -0,0 +1,170 @@
+/*
+  File Name: TokenBuffer.java
+
+  Description: The tokens of a whole source, stored in parallel int arrays indexed by token number: the terminal
+    kind from sym, the character offset and length, the line and column (both from 0, as the lexer counts them)
+    and, for identifiers and numbers, the id of their spelling in a Names pool, -1 for every other token.
+    Filling the buffer runs the lexer with a single shared Symbol and interns spellings straight out of its scan
+    buffer, so lexing allocates nothing per token. The parser can be run again over the buffer through replay(),
+    and the tokens can be written as a buffered text listing or as a compact binary file.
+*/
+
+import absyn.Names;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java_cup.runtime.Symbol;
+
+public class TokenBuffer {
+  // Leading word of a binary token file: "CMTK".
+  final static int MAGIC = 0x434d544b;
+
+  public int size;
+  public int[] kind = new int[256];
+  public int[] start = new int[256];
+  public int[] length = new int[256];
+  public int[] line = new int[256];
+  public int[] column = new int[256];
+  public int[] id = new int[256];
+  public final Names names;
+
+  public TokenBuffer(Names names) {
+    this.names = names;
+  }
+
+  public TokenBuffer(Names names, int capacity) {
+    this(names);
+    capacity = Math.max(capacity, 16);
+    kind = new int[capacity];
+    start = new int[capacity];
+    length = new int[capacity];
+    line = new int[capacity];
+    column = new int[capacity];
+    id = new int[capacity];
+  }
+
+  /* Lexes all of text in place into a new buffer, sized for a token every eight characters to start with. */
+  public static TokenBuffer scan(char[] text, Names names) throws IOException {
+    return scan(new Lexer(text), new TokenBuffer(names, text.length / 8));
+  }
+
+  public static TokenBuffer scan(Reader input, Names names) throws IOException {
+    return scan(new Lexer(input), new TokenBuffer(names));
+  }
+
+  private static TokenBuffer scan(Lexer lexer, TokenBuffer tokens) throws IOException {
+    Names names = tokens.names;
+    lexer.shareSymbols();
+    Symbol tok;
+    while ((tok = lexer.next_token()) != null) {
+      int n = lexer.yylength();
+      int spelling = -1;
+      if (tok.sym == sym.ID || tok.sym == sym.NUM) {
+        spelling = names.intern(lexer.buffer(), lexer.tokenStart(), n);
+      }
+      tokens.add(tok.sym, lexer.offset(), n, tok.left, tok.right, spelling);
+    }
+    return tokens;
+  }
+
+  public void add(int kind, int start, int length, int line, int column, int id) {
+    if (size == this.kind.length) {
+      int capacity = size * 2;
+      this.kind = Arrays.copyOf(this.kind, capacity);
+      this.start = Arrays.copyOf(this.start, capacity);
+      this.length = Arrays.copyOf(this.length, capacity);
+      this.line = Arrays.copyOf(this.line, capacity);
+      this.column = Arrays.copyOf(this.column, capacity);
+      this.id = Arrays.copyOf(this.id, capacity);
+    }
+    this.kind[size] = kind;
+    this.start[size] = start;
+    this.length[size] = length;
+    this.line[size] = line;
+    this.column[size] = column;
+    this.id[size] = id;
+    size++;
+  }
+
+  /* A scanner for the parser that hands out the buffered tokens, as the lexer would, and then null. An identifier
+     or a number carries the id of its spelling. */
+  public java_cup.runtime.Scanner replay() {
+    return new java_cup.runtime.Scanner() {
+      int next = 0;
+
+      public Symbol next_token() {
+        if (next == size) {
+          return null;
+        }
+        int i = next++;
+        if (id[i] >= 0) {
+          return new Symbol(kind[i], line[i], column[i], id[i]);
+        }
+        return new Symbol(kind[i], line[i], column[i]);
+      }
+    };
+  }
+
+  /* One token per line: line:column, the terminal name and, for identifiers and numbers, the spelling. */
+  public void writeText(OutputStream out) throws IOException {
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+    StringBuilder sb = new StringBuilder(64);
+    for (int i = 0; i < size; i++) {
+      sb.setLength(0);
+      sb.append(line[i] + 1).append(':').append(column[i] + 1).append(' ').append(sym.terminalNames[kind[i]]);
+      if (id[i] >= 0) {
+        sb.append(' ').append(names.name(id[i]));
+      }
+      sb.append('\n');
+      writer.append(sb);
+    }
+    writer.flush();
+  }
+
+  /* The magic word, the spellings in id order, the token count and then each array in turn. */
+  public void write(OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(MAGIC);
+    data.writeInt(names.size());
+    for (int i = 0; i < names.size(); i++) {
+      data.writeUTF(names.name(i));
+    }
+    data.writeInt(size);
+    for (int[] array : new int[][] { kind, start, length, line, column, id }) {
+      for (int i = 0; i < size; i++) {
+        data.writeInt(array[i]);
+      }
+    }
+    data.flush();
+  }
+
+  public static TokenBuffer read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    if (data.readInt() != MAGIC) {
+      throw new IOException("not a token file");
+    }
+    Names names = new Names();
+    int count = data.readInt();
+    for (int i = 0; i < count; i++) {
+      names.intern(data.readUTF());
+    }
+    int n = data.readInt();
+    TokenBuffer tokens = new TokenBuffer(names, n);
+    tokens.size = n;
+    for (int[] array : new int[][] { tokens.kind, tokens.start, tokens.length, tokens.line, tokens.column,
+        tokens.id }) {
+      for (int i = 0; i < n; i++) {
+        array[i] = data.readInt();
+      }
+    }
+    return tokens;
+  }
+}
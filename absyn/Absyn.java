@@ -2,6 +2,7 @@ package absyn;
 
 abstract public class Absyn {
   public int row, col;
+  public int index = -1; // node of the Arena the tree was built from
 
   abstract public void accept(AbsynVisitor visitor, int level, boolean isAddr);
 }
@@ -0,0 +1,425 @@
+package absyn;
+
+import java.util.Arrays;
+
+/*
+  A flat syntax tree. A node is an int index into parallel arrays holding its kind, source position,
+  one int value, an interned type id and the offset of its children in a shared child array, so a
+  tree of any size is a dozen arrays and a Names pool rather than an object per node with String
+  slots. The parser builds it bottom up through the methods below, and -1 stands for a missing node
+  everywhere. Statement lists are chains of LIST cells, as ExpList is, and the head cell keeps the
+  last cell so that append is constant time.
+
+  kind       value                 children
+  LIST       last cell (head only) head, tail
+  ASSIGN     -                     name, size, type specifier
+  IF         -                     test, then, else
+  INT        spelling id           -
+  OP         OpExp operator        -
+  REPEAT     -                     test, body
+  VAR        name id               index
+  TYPE       TypeExp type          -
+  FUN        -                     type specifier, name, params, body
+  PARLIST    -                     params, param
+  PARAM      1 for an array        type specifier, name
+  COMP       -                     target, value
+  RETURN     -                     value
+  MATH       MathExp type          lhs, operator, rhs
+  CALL       -                     name, args
+
+  A TYPE node gets its type when it is built, and the SemanticAnalyzer stores the type of every other
+  expression it checks. The phases walk the tree with a Visitor through accept, or with a Cursor, which
+  walks a subtree in preorder without recursion. toAbsyn rebuilds the absyn classes from a subtree,
+  only for ShowTreeVisitor and the -a listing.
+*/
+public class Arena {
+  public final static int LIST = 0;
+  public final static int ASSIGN = 1;
+  public final static int IF = 2;
+  public final static int INT = 3;
+  public final static int OP = 4;
+  public final static int REPEAT = 5;
+  public final static int VAR = 6;
+  public final static int TYPE = 7;
+  public final static int FUN = 8;
+  public final static int PARLIST = 9;
+  public final static int PARAM = 10;
+  public final static int COMP = 11;
+  public final static int RETURN = 12;
+  public final static int MATH = 13;
+  public final static int CALL = 14;
+
+  private final static int[] ARITY = { 2, 3, 3, 0, 0, 2, 1, 0, 4, 2, 2, 2, 1, 3, 2 };
+
+  public final Names names;
+  private int size;
+  private byte[] kind;
+  private int[] row, col, value, type, first;
+  private int[] children;
+  private int childCount;
+
+  public Arena(Names names) {
+    this(names, 256);
+  }
+
+  public Arena(Names names, int capacity) {
+    this.names = names;
+    capacity = Math.max(capacity, 16);
+    kind = new byte[capacity];
+    row = new int[capacity];
+    col = new int[capacity];
+    value = new int[capacity];
+    type = new int[capacity];
+    first = new int[capacity];
+    children = new int[capacity * 2];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int kind(int node) {
+    return kind[node];
+  }
+
+  public int row(int node) {
+    return row[node];
+  }
+
+  public int col(int node) {
+    return col[node];
+  }
+
+  public int value(int node) {
+    return value[node];
+  }
+
+  public int child(int node, int i) {
+    return children[first[node] + i];
+  }
+
+  public int arity(int node) {
+    return ARITY[kind[node]];
+  }
+
+  /* The spelling of a VAR or INT node, null when an INT came from an error. */
+  public String name(int node) {
+    return value[node] < 0 ? null : names.name(value[node]);
+  }
+
+  /* The type stored with node, or null when none is. */
+  public Type type(int node) {
+    return type[node] < 0 ? null : Type.get(type[node]);
+  }
+
+  public void setType(int node, Type t) {
+    type[node] = t == null ? -1 : t.id;
+  }
+
+  /* Heap bytes held by the arrays of the tree, not counting the names. */
+  public long bytes() {
+    return (1L + 5 * 4) * kind.length + 4L * children.length;
+  }
+
+  /* Cuts the arrays down to the nodes made so far, once the tree is complete. */
+  public void trim() {
+    kind = Arrays.copyOf(kind, size);
+    row = Arrays.copyOf(row, size);
+    col = Arrays.copyOf(col, size);
+    value = Arrays.copyOf(value, size);
+    type = Arrays.copyOf(type, size);
+    first = Arrays.copyOf(first, size);
+    children = Arrays.copyOf(children, childCount);
+  }
+
+  private int node(int k, int r, int c, int v) {
+    if (size == kind.length) {
+      int capacity = Math.max(size * 2, 16);
+      kind = Arrays.copyOf(kind, capacity);
+      row = Arrays.copyOf(row, capacity);
+      col = Arrays.copyOf(col, capacity);
+      value = Arrays.copyOf(value, capacity);
+      type = Arrays.copyOf(type, capacity);
+      first = Arrays.copyOf(first, capacity);
+    }
+    int arity = ARITY[k];
+    if (childCount + arity > children.length) {
+      children = Arrays.copyOf(children, Math.max(children.length * 2, 16));
+    }
+    kind[size] = (byte) k;
+    row[size] = r;
+    col[size] = c;
+    value[size] = v;
+    type[size] = -1;
+    first[size] = childCount;
+    childCount += arity;
+    return size++;
+  }
+
+  private int node(int k, int r, int c, int v, int a) {
+    int n = node(k, r, c, v);
+    children[first[n]] = a;
+    return n;
+  }
+
+  private int node(int k, int r, int c, int v, int a, int b) {
+    int n = node(k, r, c, v, a);
+    children[first[n] + 1] = b;
+    return n;
+  }
+
+  private int node(int k, int r, int c, int v, int a, int b, int d) {
+    int n = node(k, r, c, v, a, b);
+    children[first[n] + 2] = d;
+    return n;
+  }
+
+  /* A one cell list holding head, which may be -1 for an empty statement. */
+  public int list(int head) {
+    int n = node(LIST, 0, 0, -1, head, -1);
+    value[n] = n;
+    return n;
+  }
+
+  /* Links the list more onto the end of list and returns list. */
+  public int append(int list, int more) {
+    if (more >= 0) {
+      children[first[value[list]] + 1] = more;
+      value[list] = value[more];
+    }
+    return list;
+  }
+
+  public int assign(int r, int c, int name, int size, int typeSpec) {
+    return node(ASSIGN, r, c, -1, name, size, typeSpec);
+  }
+
+  public int ifExp(int r, int c, int test, int then, int otherwise) {
+    return node(IF, r, c, -1, test, then, otherwise);
+  }
+
+  /* A number with the given spelling id, -1 for the placeholder of a bad array size. */
+  public int intExp(int r, int c, int spelling) {
+    return node(INT, r, c, spelling);
+  }
+
+  public int op(int r, int c, int op) {
+    return node(OP, r, c, op);
+  }
+
+  public int repeat(int r, int c, int test, int body) {
+    return node(REPEAT, r, c, -1, test, body);
+  }
+
+  public int var(int r, int c, int id, int index) {
+    return node(VAR, r, c, id, index);
+  }
+
+  public int typeExp(int r, int c, int t) {
+    int n = node(TYPE, r, c, t);
+    type[n] = (t == TypeExp.INT ? Type.INT_TYPE : t == TypeExp.VOID ? Type.VOID_TYPE : Type.ERROR_TYPE).id;
+    return n;
+  }
+
+  public int fun(int r, int c, int typeSpec, int name, int params, int body) {
+    int n = node(FUN, r, c, -1, typeSpec, name, params);
+    children[first[n] + 3] = body;
+    return n;
+  }
+
+  public int parList(int r, int c, int params, int param) {
+    return node(PARLIST, r, c, -1, params, param);
+  }
+
+  public int param(int r, int c, int typeSpec, int name, int array) {
+    return node(PARAM, r, c, array, typeSpec, name);
+  }
+
+  public int comp(int r, int c, int target, int value) {
+    return node(COMP, r, c, -1, target, value);
+  }
+
+  public int ret(int r, int c, int value) {
+    return node(RETURN, r, c, -1, value);
+  }
+
+  public int math(int r, int c, int lhs, int op, int rhs, int t) {
+    return node(MATH, r, c, t, lhs, op, rhs);
+  }
+
+  public int call(int r, int c, int name, int args) {
+    return node(CALL, r, c, -1, name, args);
+  }
+
+  /* Calls the method of visitor for the kind of node and returns its result. */
+  public <R, C> R accept(int node, Visitor<R, C> visitor, C context) {
+    switch (kind[node]) {
+    case LIST:
+      return visitor.visitList(node, context);
+    case ASSIGN:
+      return visitor.visitAssign(node, context);
+    case IF:
+      return visitor.visitIf(node, context);
+    case INT:
+      return visitor.visitInt(node, context);
+    case OP:
+      return visitor.visitOp(node, context);
+    case REPEAT:
+      return visitor.visitRepeat(node, context);
+    case VAR:
+      return visitor.visitVar(node, context);
+    case TYPE:
+      return visitor.visitType(node, context);
+    case FUN:
+      return visitor.visitFun(node, context);
+    case PARLIST:
+      return visitor.visitParList(node, context);
+    case PARAM:
+      return visitor.visitParam(node, context);
+    case COMP:
+      return visitor.visitComp(node, context);
+    case RETURN:
+      return visitor.visitReturn(node, context);
+    case MATH:
+      return visitor.visitMath(node, context);
+    default:
+      return visitor.visitCall(node, context);
+    }
+  }
+
+  /* The absyn classes for the subtree at node, as the parser used to build them; null for -1. Every
+     object keeps the index of its node, so later phases can keep side tables in arrays. */
+  public Absyn toAbsyn(int node) {
+    return node < 0 ? null : kind[node] == LIST ? toList(node) : toExp(node);
+  }
+
+  private ExpList toList(int node) {
+    if (node < 0) {
+      return null;
+    }
+    ExpList head = null, last = null;
+    for (int n = node; n >= 0; n = child(n, 1)) {
+      ExpList cell = new ExpList(toExp(child(n, 0)), null);
+      cell.index = n;
+      if (head == null) {
+        head = cell;
+      } else {
+        last.tail = cell;
+      }
+      last = cell;
+    }
+    head.last = last;
+    return head;
+  }
+
+  private VarExp toVar(int node, int array) {
+    if (node < 0) {
+      return null;
+    }
+    VarExp var = new VarExp(row[node], col[node], name(node), value[node], toExp(child(node, 0)), array);
+    var.index = node;
+    return var;
+  }
+
+  private Exp toExp(int node) {
+    Exp exp = newExp(node);
+    if (exp != null) {
+      exp.index = node;
+    }
+    return exp;
+  }
+
+  private Exp newExp(int node) {
+    if (node < 0) {
+      return null;
+    }
+    int r = row[node], c = col[node];
+    switch (kind[node]) {
+    case ASSIGN:
+      return new AssignExp(r, c, toVar(child(node, 0), 0), (IntExp) toExp(child(node, 1)), toExp(child(node, 2)));
+    case IF:
+      return new IfExp(r, c, toExp(child(node, 0)), toList(child(node, 1)), toList(child(node, 2)));
+    case INT:
+      return new IntExp(r, c, name(node));
+    case OP:
+      return new OpExp(r, c, value[node]);
+    case REPEAT:
+      return new RepeatExp(r, c, toExp(child(node, 0)), toList(child(node, 1)));
+    case VAR:
+      return toVar(node, 0);
+    case TYPE:
+      return new TypeExp(r, c, null, value[node]);
+    case FUN:
+      return new FunExp(r, c, toExp(child(node, 0)), toVar(child(node, 1), 0), toExp(child(node, 2)),
+          toList(child(node, 3)));
+    case PARLIST:
+      return new ParListExp(r, c, toExp(child(node, 0)), toExp(child(node, 1)));
+    case PARAM:
+      return new ParamExp(r, c, toExp(child(node, 0)), toVar(child(node, 1), value[node]));
+    case COMP:
+      return new CompExp(r, c, toExp(child(node, 0)), toExp(child(node, 1)));
+    case RETURN:
+      return new ReturnExp(r, c, toExp(child(node, 0)));
+    case MATH:
+      return new MathExp(r, c, toExp(child(node, 0)), toExp(child(node, 1)), toExp(child(node, 2)), value[node]);
+    case CALL:
+      return new CallExp(r, c, toVar(child(node, 0), 0), toList(child(node, 1)));
+    default:
+      throw new IllegalStateException("list where an expression belongs: node " + node);
+    }
+  }
+
+  /* A preorder walk of a subtree with an explicit stack. The cells of a list are siblings: the tail of a
+     cell is visited after its head, at the same depth. */
+  public class Cursor {
+    private int[] stack = new int[64];
+    private int[] depths = new int[64];
+    private int top;
+    private int node = -1, depth;
+
+    public Cursor(int root) {
+      push(root, 0);
+    }
+
+    /* Moves to the next node and returns true, or returns false when the walk is over. */
+    public boolean next() {
+      if (top == 0) {
+        node = -1;
+        return false;
+      }
+      top--;
+      node = stack[top];
+      depth = depths[top];
+      int arity = ARITY[kind[node]];
+      for (int i = arity - 1; i >= 0; i--) {
+        push(child(node, i), kind[node] == LIST && i == 1 ? depth : depth + 1);
+      }
+      return true;
+    }
+
+    private void push(int n, int d) {
+      if (n < 0) {
+        return;
+      }
+      if (top == stack.length) {
+        stack = Arrays.copyOf(stack, top * 2);
+        depths = Arrays.copyOf(depths, top * 2);
+      }
+      stack[top] = n;
+      depths[top] = d;
+      top++;
+    }
+
+    public int node() {
+      return node;
+    }
+
+    public int depth() {
+      return depth;
+    }
+
+    public int kind() {
+      return kind[node];
+    }
+  }
+}
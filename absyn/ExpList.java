@@ -3,10 +3,21 @@ package absyn;
 public class ExpList extends Absyn {
   public Exp head;
   public ExpList tail;
+  public ExpList last; // last cell of the list, only kept up to date on the head cell
 
   public ExpList(Exp head, ExpList tail) {
     this.head = head;
     this.tail = tail;
+    this.last = (tail == null) ? this : tail.last;
+  }
+
+  /* Links list onto the end of this one in constant time and returns this. */
+  public ExpList append(ExpList list) {
+    if (list != null) {
+      last.tail = list;
+      last = list.last;
+    }
+    return this;
   }
 
   public void accept(AbsynVisitor visitor, int level, boolean isAddr) {
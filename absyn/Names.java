@@ -0,0 +1,107 @@
+package absyn;
+
+import java.util.Arrays;
+
+/*
+  Interning pool for identifiers and number literals. Every distinct spelling gets a small int id, in
+  order of first appearance, and its String is made once, when the id is handed out. Spellings are
+  looked up straight from a range of a char array with an open-addressing hash table, so the lexer can
+  intern a token while it is still in the scan buffer without copying it first. It lives with the tree
+  because an Arena names its variables and numbers by these ids.
+*/
+public class Names {
+  private String[] names = new String[64];
+  private int[] hashes = new int[64];
+  private int[] table = new int[128]; // id + 1 of each slot, 0 when empty
+  private int size;
+
+  public int size() {
+    return size;
+  }
+
+  public String name(int id) {
+    return names[id];
+  }
+
+  public int intern(String s) {
+    return intern(s.toCharArray(), 0, s.length());
+  }
+
+  /* Id of the spelling buf[start] .. buf[start + length - 1], entered if it is new. */
+  public int intern(char[] buf, int start, int length) {
+    int hash = 0;
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + buf[start + i];
+    }
+    int mask = table.length - 1;
+    for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+      int id = table[slot] - 1;
+      if (id < 0) {
+        break;
+      }
+      if (hashes[id] == hash && equals(names[id], buf, start, length)) {
+        return id;
+      }
+    }
+    if (size == names.length) {
+      names = Arrays.copyOf(names, size * 2);
+      hashes = Arrays.copyOf(hashes, size * 2);
+    }
+    names[size] = new String(buf, start, length);
+    hashes[size] = hash;
+    size++;
+    if (size * 2 > table.length) {
+      rehash();
+    } else {
+      place(size - 1);
+    }
+    return size - 1;
+  }
+
+  /* Id of s, or -1 when it was never interned. */
+  public int lookup(String s) {
+    int hash = s.hashCode();
+    int mask = table.length - 1;
+    for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+      int id = table[slot] - 1;
+      if (id < 0) {
+        return -1;
+      }
+      if (hashes[id] == hash && names[id].equals(s)) {
+        return id;
+      }
+    }
+  }
+
+  private static int mix(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean equals(String name, char[] buf, int start, int length) {
+    if (name.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (name.charAt(i) != buf[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void place(int id) {
+    int mask = table.length - 1;
+    int slot = mix(hashes[id]) & mask;
+    while (table[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = id + 1;
+  }
+
+  private void rehash() {
+    table = new int[table.length * 2];
+    for (int id = 0; id < size; id++) {
+      place(id);
+    }
+  }
+}
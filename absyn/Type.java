@@ -0,0 +1,98 @@
+package absyn;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/*
+  Canonical C Minus types. Every distinct type exists exactly once, so two types are
+  equal only when they are the same object. Arrays carry their size (-1 for array
+  parameters) and functions carry their parameter and return types.
+*/
+public final class Type {
+  public final static int INT = 0;
+  public final static int VOID = 1;
+  public final static int ARRAY = 2;
+  public final static int FUNCTION = 3;
+  public final static int ERROR = 4;
+
+  public final int kind;
+  public final int id;        // dense number, unique per interned type
+  public final Type elem;     // element type of an array, return type of a function
+  public final int size;      // array size, -1 for an array parameter
+  public final Type[] params; // parameter types of a function
+  public final Type decayed;  // the type as seen by a parameter: arrays lose their size
+  private final String name;
+
+  private static int count = 0;
+  private static final ArrayList<Type> all = new ArrayList<Type>(); // every type, by id
+  private static final HashMap<Long, Type> arrays = new HashMap<Long, Type>();
+  private static final HashMap<String, Type> functions = new HashMap<String, Type>();
+
+  public final static Type INT_TYPE = new Type(INT, null, 0, null, "INT");
+  public final static Type VOID_TYPE = new Type(VOID, null, 0, null, "VOID");
+  public final static Type ERROR_TYPE = new Type(ERROR, null, 0, null, "ERROR");
+  public final static Type UNDEFINED = new Type(ERROR, null, 0, null, "ERROR - undefined");
+
+  private Type(int kind, Type elem, int size, Type[] params, String name) {
+    this.kind = kind;
+    this.id = count++;
+    all.add(this);
+    this.elem = elem;
+    this.size = size;
+    this.params = params;
+    this.name = name;
+    if (kind == ARRAY && size != -1) {
+      this.decayed = array(elem, -1);
+    } else {
+      this.decayed = this;
+    }
+  }
+
+  public static synchronized Type array(Type elem, int size) {
+    Long key = ((long) elem.id << 32) | (size & 0xffffffffL);
+    Type t = arrays.get(key);
+    if (t == null) {
+      t = new Type(ARRAY, elem, size, null, elem.name + "[" + size + "]");
+      arrays.put(key, t);
+    }
+    return t;
+  }
+
+  public static synchronized Type function(Type result, Type[] params) {
+    StringBuilder sb = new StringBuilder("(");
+    if (params.length == 0) {
+      sb.append("VOID");
+    }
+    for (int i = 0; i < params.length; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(params[i].name);
+    }
+    String key = sb.append(") -> ").append(result.name).toString();
+    Type t = functions.get(key);
+    if (t == null) {
+      t = new Type(FUNCTION, result, params.length, params.clone(), key);
+      functions.put(key, t);
+    }
+    return t;
+  }
+
+  /* The type numbered id, as an Arena stores it. */
+  public static synchronized Type get(int id) {
+    return all.get(id);
+  }
+
+  public boolean isError() {
+    return kind == ERROR;
+  }
+
+  /* True when a value of type arg may be passed to a parameter of this type. */
+  public boolean accepts(Type arg) {
+    return decayed == arg.decayed;
+  }
+
+  public String toString() {
+    return name;
+  }
+}
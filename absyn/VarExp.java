@@ -2,16 +2,18 @@ package absyn;
 
 public class VarExp extends Exp {
   public String name;
+  public int id; // id of name in the Names pool of the parse
   public Exp exprs;
   public int SimpleDec;
   public int ArrayDec;
   public int FunctionDec;
   public int array;
 
-  public VarExp(int row, int col, String name, Exp exprs, int array) {
+  public VarExp(int row, int col, String name, int id, Exp exprs, int array) {
     this.row = row;
     this.col = col;
     this.name = name;
+    this.id = id;
     this.exprs = exprs;
     this.def = null;
     this.info = name;
@@ -0,0 +1,42 @@
+package absyn;
+
+/*
+  A visitor over the nodes of an Arena that returns a value and carries a context down the tree, so a
+  phase can pass its results back up through return values and keep what outlives the walk in its own
+  side tables, indexed by node, instead of writing it into the tree. Arena.accept calls the method for
+  the kind of a node. A node is never changed by a Visitor, so one parsed tree can be walked by several
+  of them, one after another or at the same time.
+*/
+public interface Visitor<R, C> {
+
+  public R visitList(int node, C context);
+
+  public R visitAssign(int node, C context);
+
+  public R visitIf(int node, C context);
+
+  public R visitInt(int node, C context);
+
+  public R visitOp(int node, C context);
+
+  public R visitRepeat(int node, C context);
+
+  public R visitVar(int node, C context);
+
+  public R visitType(int node, C context);
+
+  public R visitFun(int node, C context);
+
+  public R visitParList(int node, C context);
+
+  public R visitParam(int node, C context);
+
+  public R visitComp(int node, C context);
+
+  public R visitReturn(int node, C context);
+
+  public R visitMath(int node, C context);
+
+  public R visitCall(int node, C context);
+
+}
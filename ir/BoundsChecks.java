@@ -0,0 +1,54 @@
+package ir;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+/*
+  Bounds-check elimination. A CHECK whose index the range analysis places inside the array, from 0
+  to size - 1, or at 0 and above for an array parameter whose size is unknown, can never fail and is
+  deleted. This covers the accesses of a loop indexed by a variable the loop test keeps in range,
+  and repeated accesses with an index that was already checked. The count of removed and kept checks
+  is recorded for every function.
+*/
+public class BoundsChecks {
+  public ArrayList<String> names = new ArrayList<String>();
+  public ArrayList<int[]> counts = new ArrayList<int[]>(); // {removed, kept} for every function
+  int rounds;
+
+  public void run(Program program) {
+    RangeAnalysis ranges = new RangeAnalysis(program);
+    rounds = ranges.rounds;
+    for (Function f : program.functions) {
+      int removed = 0, kept = 0;
+      ArrayList<Instr> code = new ArrayList<Instr>(f.code.size());
+      for (Instr instr : f.code) {
+        if (instr.op == Instr.CHECK) {
+          int high = instr.imm >= 0 ? instr.imm - 1 : Integer.MAX_VALUE;
+          if (ranges.within(f, instr.a, 0, high)) {
+            removed++;
+            continue;
+          }
+          kept++;
+        }
+        code.add(instr);
+      }
+      f.code = code;
+      if (removed + kept > 0) {
+        names.add(f.name);
+        counts.add(new int[] { removed, kept });
+      }
+    }
+  }
+
+  public void report(PrintStream out) {
+    int removed = 0, kept = 0;
+    for (int[] c : counts) {
+      removed += c[0];
+      kept += c[1];
+    }
+    out.println("Bounds checks: " + removed + " removed, " + kept + " kept (ranges stable after " + rounds + " rounds)");
+    for (int i = 0; i < names.size(); i++) {
+      out.printf("  %-18s %4d removed %4d kept%n", names.get(i), counts.get(i)[0], counts.get(i)[1]);
+    }
+  }
+}
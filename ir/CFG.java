@@ -0,0 +1,232 @@
+package ir;
+
+import java.util.Arrays;
+
+/*
+  Control-flow graph of one function. A basic block starts at the first instruction, at every LABEL and
+  right after every JUMP, JCOND, RET and tail CALL, and covers the instructions from start[b] up to end[b] - 1.
+  Block 0 is the entry. Edges are kept in compressed form: the successors of b are
+  succ[succStart[b]] .. succ[succStart[b + 1] - 1], and likewise for the predecessors.
+
+  Dominators are computed with the iterative algorithm of Cooper, Harvey and Kennedy over the reverse
+  postorder: idom[b] is the immediate dominator of b, the entry is its own, and it is -1 for blocks
+  that cannot be reached from the entry.
+*/
+public class CFG {
+  public final Function function;
+  public int blocks;
+  public int[] start, end;
+  public int[] blockOf;   // block of every instruction
+  public int[] succStart, succ;
+  public int[] predStart, pred;
+  public int[] rpo;       // reachable blocks in reverse postorder
+  public int reachable;   // length of rpo
+  public int[] rpoIndex;  // position of every block in rpo, -1 when unreachable
+  public int[] idom;
+  public int[] depth;     // depth in the dominator tree, 0 for the entry
+
+  public CFG(Function function) {
+    this.function = function;
+    blocks();
+    edges();
+    order();
+    dominators();
+  }
+
+  public int successors(int b) {
+    return succStart[b + 1] - succStart[b];
+  }
+
+  public int predecessors(int b) {
+    return predStart[b + 1] - predStart[b];
+  }
+
+  /* Last instruction of block b. */
+  public Instr last(int b) {
+    return function.code.get(end[b] - 1);
+  }
+
+  public boolean isReachable(int b) {
+    return rpoIndex[b] >= 0;
+  }
+
+  /* True when every path from the entry to b passes through a, including a == b. */
+  public boolean dominates(int a, int b) {
+    if (!isReachable(a) || !isReachable(b)) {
+      return false;
+    }
+    while (depth[b] > depth[a]) {
+      b = idom[b];
+    }
+    return a == b;
+  }
+
+  /* An edge to a block that dominates its source closes a loop. */
+  public boolean isBackEdge(int from, int to) {
+    return dominates(to, from);
+  }
+
+  private void blocks() {
+    int n = function.code.size();
+    blockOf = new int[n];
+    start = new int[n + 1];
+    int count = 0;
+    boolean leader = true;
+    for (int i = 0; i < n; i++) {
+      Instr instr = function.code.get(i);
+      if (instr.op == Instr.LABEL && i > 0) {
+        leader = true;
+      }
+      if (leader) {
+        start[count++] = i;
+        leader = false;
+      }
+      blockOf[i] = count - 1;
+      if (instr.isBranch() || !instr.fallsThrough()) {
+        leader = true;
+      }
+    }
+    if (count == 0) {
+      // An empty function still has an entry block.
+      count = 1;
+    }
+    blocks = count;
+    end = new int[count];
+    for (int b = 0; b < count; b++) {
+      end[b] = b + 1 < count ? start[b + 1] : n;
+    }
+    start = Arrays.copyOf(start, count);
+  }
+
+  private void edges() {
+    int[] labelBlock = new int[function.labels];
+    for (int b = 0; b < blocks; b++) {
+      if (start[b] < end[b] && function.code.get(start[b]).op == Instr.LABEL) {
+        labelBlock[function.code.get(start[b]).label] = b;
+      }
+    }
+    // At most two successors per block: the branch target and the next block.
+    int[] target = new int[blocks * 2];
+    int[] count = new int[blocks];
+    int[] predCount = new int[blocks + 1];
+    for (int b = 0; b < blocks; b++) {
+      if (start[b] == end[b]) {
+        continue;
+      }
+      Instr instr = last(b);
+      if (instr.isBranch()) {
+        target[2 * b + count[b]++] = labelBlock[instr.label];
+      }
+      if (instr.fallsThrough() && b + 1 < blocks && !(count[b] == 1 && target[2 * b] == b + 1)) {
+        target[2 * b + count[b]++] = b + 1;
+      }
+      for (int k = 0; k < count[b]; k++) {
+        predCount[target[2 * b + k]]++;
+      }
+    }
+    succStart = new int[blocks + 1];
+    predStart = new int[blocks + 1];
+    for (int b = 0; b < blocks; b++) {
+      succStart[b + 1] = succStart[b] + count[b];
+      predStart[b + 1] = predStart[b] + predCount[b];
+    }
+    succ = new int[succStart[blocks]];
+    pred = new int[predStart[blocks]];
+    int[] fill = Arrays.copyOf(predStart, blocks);
+    for (int b = 0; b < blocks; b++) {
+      for (int k = 0; k < count[b]; k++) {
+        int s = target[2 * b + k];
+        succ[succStart[b] + k] = s;
+        pred[fill[s]++] = b;
+      }
+    }
+  }
+
+  /* Depth-first search from the entry with an explicit stack, numbering blocks in reverse postorder. */
+  private void order() {
+    rpo = new int[blocks];
+    rpoIndex = new int[blocks];
+    Arrays.fill(rpoIndex, -1);
+    int[] stack = new int[blocks];
+    int[] next = new int[blocks]; // next successor to visit
+    boolean[] seen = new boolean[blocks];
+    int post = blocks;
+    int sp = 0;
+    stack[sp++] = 0;
+    seen[0] = true;
+    while (sp > 0) {
+      int b = stack[sp - 1];
+      if (next[b] < successors(b)) {
+        int s = succ[succStart[b] + next[b]++];
+        if (!seen[s]) {
+          seen[s] = true;
+          stack[sp++] = s;
+        }
+      } else {
+        sp--;
+        rpo[--post] = b;
+      }
+    }
+    reachable = blocks - post;
+    // Shift the reachable blocks to the front.
+    System.arraycopy(rpo, post, rpo, 0, reachable);
+    for (int i = 0; i < reachable; i++) {
+      rpoIndex[rpo[i]] = i;
+    }
+  }
+
+  private void dominators() {
+    idom = new int[blocks];
+    Arrays.fill(idom, -1);
+    idom[0] = 0;
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = 1; i < reachable; i++) {
+        int b = rpo[i];
+        int dom = -1;
+        for (int k = predStart[b]; k < predStart[b + 1]; k++) {
+          int p = pred[k];
+          if (idom[p] < 0) {
+            continue;
+          }
+          dom = dom < 0 ? p : intersect(p, dom);
+        }
+        if (dom != idom[b]) {
+          idom[b] = dom;
+          changed = true;
+        }
+      }
+    }
+    depth = new int[blocks];
+    for (int i = 1; i < reachable; i++) {
+      int b = rpo[i];
+      depth[b] = depth[idom[b]] + 1;
+    }
+  }
+
+  private int intersect(int a, int b) {
+    while (a != b) {
+      while (rpoIndex[a] > rpoIndex[b]) {
+        a = idom[a];
+      }
+      while (rpoIndex[b] > rpoIndex[a]) {
+        b = idom[b];
+      }
+    }
+    return a;
+  }
+
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (int b = 0; b < blocks; b++) {
+      sb.append("B").append(b).append(" [").append(start[b]).append(", ").append(end[b]).append(")");
+      sb.append(" idom ").append(idom[b] < 0 ? "-" : "B" + idom[b]).append(" ->");
+      for (int k = succStart[b]; k < succStart[b + 1]; k++) {
+        sb.append(" B").append(succ[k]);
+      }
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,154 @@
+package ir;
+
+import java.util.Arrays;
+
+/*
+  Call graph of a program. Functions are numbered by Function.index, their order in Program.functions,
+  and the distinct functions f calls are callee[calleeStart[f]] .. callee[calleeStart[f + 1] - 1]. Calls
+  of input and output, which have no Function, are not edges.
+
+  The strongly connected components are found with Tarjan's algorithm, run with an explicit stack so
+  thousands of nested calls do not overflow the Java stack. order lists every function with the
+  components in reverse topological order, callees before their callers except within a cycle, and a
+  function is recursive when its component has more than one member or it calls itself.
+
+  reachable marks the functions a root such as main can call, directly or not; everything else can be
+  left out of the program, along with the runtime routines only those functions call.
+*/
+public class CallGraph {
+  public final Program program;
+  public final int size;
+  public int[] calleeStart, callee;
+  public int[] order;
+  public boolean[] recursive;
+
+  public CallGraph(Program program) {
+    this.program = program;
+    this.size = program.functions.size();
+    edges();
+    components();
+  }
+
+  /* The functions root calls directly or indirectly, root included. */
+  public boolean[] reachable(Function root) {
+    boolean[] reached = new boolean[size];
+    int[] stack = new int[size];
+    int sp = 0;
+    int r = root.index;
+    reached[r] = true;
+    stack[sp++] = r;
+    while (sp > 0) {
+      int f = stack[--sp];
+      for (int k = calleeStart[f]; k < calleeStart[f + 1]; k++) {
+        if (!reached[callee[k]]) {
+          reached[callee[k]] = true;
+          stack[sp++] = callee[k];
+        }
+      }
+    }
+    return reached;
+  }
+
+  /* True when one of the marked functions calls routine, Program.INPUT or Program.OUTPUT. */
+  public boolean calls(boolean[] reached, int routine) {
+    for (int f = 0; f < size; f++) {
+      if (!reached[f]) {
+        continue;
+      }
+      for (Instr instr : program.functions.get(f).code) {
+        if (instr.op == Instr.CALL && instr.function == routine) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private void edges() {
+    calleeStart = new int[size + 1];
+    int[] list = new int[16];
+    int n = 0;
+    int[] seen = new int[size]; // last caller plus one that listed each function
+    for (int f = 0; f < size; f++) {
+      for (Instr instr : program.functions.get(f).code) {
+        if (instr.op != Instr.CALL) {
+          continue;
+        }
+        int k = instr.function;
+        if (k < 0) {
+          continue;
+        }
+        if (seen[k] == f + 1) {
+          continue;
+        }
+        seen[k] = f + 1;
+        if (n == list.length) {
+          list = Arrays.copyOf(list, n * 2);
+        }
+        list[n++] = k;
+      }
+      calleeStart[f + 1] = n;
+    }
+    callee = Arrays.copyOf(list, n);
+  }
+
+  private void components() {
+    order = new int[size];
+    recursive = new boolean[size];
+    int[] number = new int[size]; // discovery number from 1, 0 when not yet visited
+    int[] low = new int[size];
+    int[] next = new int[size];   // next callee edge to follow
+    boolean[] onStack = new boolean[size];
+    int[] stack = new int[size];  // Tarjan's stack of open components
+    int[] path = new int[size];   // depth-first path
+    int sp = 0, depth = 0, count = 0, placed = 0;
+    for (int root = 0; root < size; root++) {
+      if (number[root] != 0) {
+        continue;
+      }
+      path[depth++] = root;
+      number[root] = low[root] = ++count;
+      next[root] = calleeStart[root];
+      stack[sp++] = root;
+      onStack[root] = true;
+      while (depth > 0) {
+        int f = path[depth - 1];
+        if (next[f] < calleeStart[f + 1]) {
+          int g = callee[next[f]++];
+          if (g == f) {
+            recursive[f] = true;
+          }
+          if (number[g] == 0) {
+            number[g] = low[g] = ++count;
+            next[g] = calleeStart[g];
+            stack[sp++] = g;
+            onStack[g] = true;
+            path[depth++] = g;
+          } else if (onStack[g]) {
+            low[f] = Math.min(low[f], number[g]);
+          }
+          continue;
+        }
+        depth--;
+        if (depth > 0) {
+          int parent = path[depth - 1];
+          low[parent] = Math.min(low[parent], low[f]);
+        }
+        if (low[f] == number[f]) {
+          int first = placed;
+          int g;
+          do {
+            g = stack[--sp];
+            onStack[g] = false;
+            order[placed++] = g;
+          } while (g != f);
+          if (placed - first > 1) {
+            for (int k = first; k < placed; k++) {
+              recursive[order[k]] = true;
+            }
+          }
+        }
+      }
+    }
+  }
+}
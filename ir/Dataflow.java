@@ -0,0 +1,114 @@
+package ir;
+
+/*
+  Worklist solver for bit-vector dataflow problems over a CFG. Facts are bit positions; the sets of every
+  block live in flat long arrays with words longs per block, so solving allocates nothing beyond the
+  arrays made up front. A subclass sets gen and kill for every block, and the solver iterates
+
+    forward:   in[b] = union of out[p] over predecessors p,   out[b] = gen[b] | (in[b] & ~kill[b])
+    backward:  out[b] = union of in[s] over successors s,     in[b] = gen[b] | (out[b] & ~kill[b])
+
+  to the least fixpoint, starting from empty sets. in[b] and out[b] are always the facts at the start
+  and at the end of block b, whichever way the problem flows. Blocks are first visited in reverse
+  postorder (forward) or postorder (backward), and afterwards only when a neighbour's facts changed.
+*/
+public abstract class Dataflow {
+  public final CFG cfg;
+  public final boolean forward;
+  public final int bits;
+  public final int words;
+  public final long[] in, out, gen, kill;
+  public int visits; // blocks evaluated by the last solve
+
+  protected Dataflow(CFG cfg, int bits, boolean forward) {
+    this.cfg = cfg;
+    this.forward = forward;
+    this.bits = bits;
+    this.words = (bits + 63) >>> 6;
+    int size = cfg.blocks * words;
+    in = new long[size];
+    out = new long[size];
+    gen = new long[size];
+    kill = new long[size];
+  }
+
+  public static boolean get(long[] set, int base, int bit) {
+    return (set[base + (bit >>> 6)] & (1L << bit)) != 0;
+  }
+
+  public static void set(long[] set, int base, int bit) {
+    set[base + (bit >>> 6)] |= 1L << bit;
+  }
+
+  public static void clear(long[] set, int base, int bit) {
+    set[base + (bit >>> 6)] &= ~(1L << bit);
+  }
+
+  /* Offset of the words of block b in in, out, gen and kill. */
+  public int base(int b) {
+    return b * words;
+  }
+
+  public boolean in(int b, int bit) {
+    return get(in, base(b), bit);
+  }
+
+  public boolean out(int b, int bit) {
+    return get(out, base(b), bit);
+  }
+
+  public void solve() {
+    int n = cfg.reachable;
+    int[] queue = new int[n + 1];
+    boolean[] queued = new boolean[cfg.blocks];
+    int head = 0, tail = 0;
+    for (int i = 0; i < n; i++) {
+      int b = cfg.rpo[forward ? i : n - 1 - i];
+      queue[tail++] = b;
+      queued[b] = true;
+    }
+    int size = n + 1;
+    visits = 0;
+    while (head != tail) {
+      int b = queue[head];
+      head = head + 1 == size ? 0 : head + 1;
+      queued[b] = false;
+      visits++;
+
+      int at = base(b);
+      long[] meet = forward ? in : out;
+      long[] result = forward ? out : in;
+      int[] edges = forward ? cfg.pred : cfg.succ;
+      int first = forward ? cfg.predStart[b] : cfg.succStart[b];
+      int last = forward ? cfg.predStart[b + 1] : cfg.succStart[b + 1];
+      for (int k = first; k < last; k++) {
+        int from = base(edges[k]);
+        for (int w = 0; w < words; w++) {
+          meet[at + w] |= result[from + w];
+        }
+      }
+      boolean changed = false;
+      for (int w = 0; w < words; w++) {
+        long v = gen[at + w] | (meet[at + w] & ~kill[at + w]);
+        if (v != result[at + w]) {
+          result[at + w] = v;
+          changed = true;
+        }
+      }
+      if (!changed) {
+        continue;
+      }
+      int[] next = forward ? cfg.succ : cfg.pred;
+      first = forward ? cfg.succStart[b] : cfg.predStart[b];
+      last = forward ? cfg.succStart[b + 1] : cfg.predStart[b + 1];
+      for (int k = first; k < last; k++) {
+        int s = next[k];
+        if (!queued[s] && cfg.isReachable(s)) {
+          queued[s] = true;
+          queue[tail] = s;
+          tail = tail + 1 == size ? 0 : tail + 1;
+        }
+      }
+    }
+  }
+}
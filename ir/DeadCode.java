@@ -0,0 +1,160 @@
+package ir;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+/*
+  Dead store and dead code elimination. Blocks that cannot be reached from the entry of their
+  function, such as the code after a return, are deleted. Then liveness decides, walking every block
+  backward from the names live out of it, which instructions compute something nobody reads:
+  a store to a scalar parameter or local whose value is dead, or an instruction without side effects
+  whose temporary is never used. A call whose result is unused keeps the call but drops the result.
+  Globals and arrays are left alone, since calls and output can observe them, and so is every
+  instruction that can stop the program. A jump to the label right after it is dropped, and so are
+  labels nothing jumps to. The function is analyzed again until nothing more changes.
+*/
+public class DeadCode {
+  public int blocks, stores, instructions, results;
+
+  public void run(Program program) {
+    for (Function f : program.functions) {
+      run(f);
+    }
+  }
+
+  public void run(Function f) {
+    boolean changed = true;
+    while (changed) {
+      CFG cfg = new CFG(f);
+      boolean[] dead = new boolean[f.code.size()];
+      changed = unreachable(cfg, dead);
+      changed |= deadStores(cfg, dead);
+      changed |= jumps(f, dead);
+      if (changed) {
+        compact(f, dead);
+      }
+    }
+  }
+
+  private boolean unreachable(CFG cfg, boolean[] dead) {
+    boolean changed = false;
+    for (int b = 1; b < cfg.blocks; b++) {
+      if (cfg.isReachable(b) || cfg.start[b] == cfg.end[b]) {
+        continue;
+      }
+      for (int i = cfg.start[b]; i < cfg.end[b]; i++) {
+        dead[i] = true;
+      }
+      blocks++;
+      changed = true;
+    }
+    return changed;
+  }
+
+  private boolean deadStores(CFG cfg, boolean[] dead) {
+    Function f = cfg.function;
+    Liveness live = new Liveness(cfg);
+    long[] set = new long[live.words];
+    // Temporaries local to a block are defined once and used after their definition in the same block,
+    // so walking backward sees every use first.
+    boolean[] used = new boolean[f.temps];
+    boolean changed = false;
+    for (int b = 0; b < cfg.blocks; b++) {
+      if (!cfg.isReachable(b)) {
+        continue;
+      }
+      System.arraycopy(live.out, live.base(b), set, 0, live.words);
+      for (int i = cfg.end[b] - 1; i >= cfg.start[b]; i--) {
+        Instr instr = f.code.get(i);
+        if (isDead(instr, live, set, used)) {
+          dead[i] = true;
+          if (instr.op == Instr.STORE) {
+            stores++;
+          }
+          changed = true;
+          continue;
+        }
+        if (instr.op == Instr.CALL && instr.dst >= 0 && !isLive(instr.dst, live, set, used)) {
+          instr.dst = -1;
+          results++;
+          changed = true;
+        }
+        live.step(instr, set, 0);
+        if (instr.a >= 0) {
+          used[instr.a] = true;
+        }
+        if (instr.b >= 0) {
+          used[instr.b] = true;
+        }
+      }
+    }
+    return changed;
+  }
+
+  private static boolean isLive(int temp, Liveness live, long[] set, boolean[] used) {
+    int bit = live.tempBit[temp];
+    return bit >= 0 ? Dataflow.get(set, 0, bit) : used[temp];
+  }
+
+  private static boolean isDead(Instr instr, Liveness live, long[] set, boolean[] used) {
+    if (instr.op == Instr.STORE) {
+      return instr.var.isLocalScalar() && !Dataflow.get(set, 0, live.varBit[instr.var.index]);
+    }
+    if (instr.hasSideEffects() || instr.dst < 0) {
+      return false;
+    }
+    return !isLive(instr.dst, live, set, used);
+  }
+
+  /* Marks jumps to the label that follows them, and labels no live jump targets. */
+  private boolean jumps(Function f, boolean[] dead) {
+    int n = f.code.size();
+    boolean[] target = new boolean[f.labels];
+    int next = -1; // index of the next live instruction after i
+    boolean changed = false;
+    for (int i = n - 1; i >= 0; i--) {
+      if (dead[i]) {
+        continue;
+      }
+      Instr instr = f.code.get(i);
+      if (instr.isBranch() && next >= 0 && isLabel(f.code.get(next), instr.label)) {
+        dead[i] = true;
+        changed = true;
+        continue;
+      }
+      if (instr.isBranch()) {
+        target[instr.label] = true;
+      }
+      next = i;
+    }
+    for (int i = 0; i < n; i++) {
+      Instr instr = f.code.get(i);
+      if (!dead[i] && instr.op == Instr.LABEL && !target[instr.label]) {
+        dead[i] = true;
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  private static boolean isLabel(Instr instr, int label) {
+    return instr.op == Instr.LABEL && instr.label == label;
+  }
+
+  private void compact(Function f, boolean[] dead) {
+    ArrayList<Instr> code = new ArrayList<Instr>(f.code.size());
+    for (int i = 0; i < dead.length; i++) {
+      if (dead[i]) {
+        instructions++;
+      } else {
+        code.add(f.code.get(i));
+      }
+    }
+    f.code = code;
+  }
+
+  public void report(PrintStream out) {
+    out.println("Dead code: " + instructions + " IR instructions removed, " + stores + " dead stores, " + blocks
+        + " unreachable blocks, " + results + " unused call results");
+  }
+}
@@ -0,0 +1,194 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+  Frame slots for the locals of a function from their live ranges, so that locals whose lifetimes do
+  not overlap share slots even within one scope, as a loop counter used only in the first half of a
+  function and another used only in the second half do. Parameters keep their slots, where the caller
+  puts them.
+
+  A lifetime is a range of instruction positions. A scalar local is live from the first to the last
+  point where it is read, written or live after the instruction, by Liveness. An array is reached through
+  addresses as well, so its range covers every instruction that names it, every temporary holding an
+  address computed from it up to the last use of that temporary, and every call an address of it is
+  passed to. A range that overlaps a backward jump is widened to the whole of it, since the values
+  may be read again on the way round.
+
+  Locals are then placed in order of where their ranges start, each at the lowest slots that no local
+  with an overlapping range holds. The new layout is kept only when it makes the frame smaller than
+  the one it came with, in which block scopes already share slots.
+*/
+public class FrameLayout {
+  public int before, after; // local slots of the functions laid out, as they came and as they went
+
+  /* Lays out the locals of f. end is the last position each temporary is needed at, -1 for an unused
+     one, as the register allocator works it out from the same liveness. */
+  public void run(Function f, CFG cfg, Liveness live, int[] end) {
+    int paramSlots = 2;
+    for (Var v : f.params) {
+      paramSlots += v.slots();
+    }
+    before += f.frameSize - paramSlots;
+    int n = f.code.size();
+    int vars = f.vars();
+    int[] lo = new int[vars];
+    int[] hi = new int[vars];
+    Arrays.fill(lo, Integer.MAX_VALUE);
+    Arrays.fill(hi, -1);
+
+    // Scalars: every point where they are read, written or live after.
+    long[] set = new long[live.words];
+    for (int b = 0; b < cfg.blocks; b++) {
+      System.arraycopy(live.out, live.base(b), set, 0, live.words);
+      for (int i = cfg.end[b] - 1; i >= cfg.start[b]; i--) {
+        Instr instr = f.code.get(i);
+        for (int w = 0; w < live.words; w++) {
+          for (long bits = set[w]; bits != 0; bits &= bits - 1) {
+            int name = live.name[(w << 6) + Long.numberOfTrailingZeros(bits)];
+            if (name >= f.temps) {
+              cover(lo, hi, name - f.temps, i, i);
+            }
+          }
+        }
+        if ((instr.op == Instr.LOAD || instr.op == Instr.STORE) && instr.var.isLocalScalar()) {
+          cover(lo, hi, instr.var.index, i, i);
+        }
+        live.step(instr, set, 0);
+      }
+    }
+
+    // Arrays: the instructions naming them and the temporaries holding their addresses.
+    int[] start = new int[f.temps];
+    Arrays.fill(start, Integer.MAX_VALUE);
+    Var[] base = new Var[f.temps]; // local array a temporary holds an address into, or null
+    int[] u = new int[2];
+    for (int i = 0; i < n; i++) {
+      Instr instr = f.code.get(i);
+      if (instr.var != null && instr.var.kind == Var.LOCAL && instr.var.isArray()) {
+        cover(lo, hi, instr.var.index, i, i);
+        if (instr.op == Instr.ADDR) {
+          base[instr.dst] = instr.var;
+        }
+      }
+      for (int k = instr.uses(u) - 1; k >= 0; k--) {
+        start[u[k]] = Math.min(start[u[k]], i);
+      }
+      if (instr.dst >= 0) {
+        start[instr.dst] = Math.min(start[instr.dst], i);
+      }
+    }
+    // A temporary can be used before its definition in code order, as in a rotated loop, so the
+    // addresses are followed until nothing changes.
+    for (boolean changed = true; changed;) {
+      changed = false;
+      for (Instr instr : f.code) {
+        if ((instr.op == Instr.ADD || instr.op == Instr.SUB) && base[instr.dst] == null) {
+          Var v = instr.a >= 0 && base[instr.a] != null ? base[instr.a] : instr.b >= 0 ? base[instr.b] : null;
+          if (v != null) {
+            base[instr.dst] = v;
+            changed = true;
+          }
+        }
+      }
+    }
+    for (int t = 0; t < f.temps; t++) {
+      if (base[t] != null && end[t] >= 0) {
+        cover(lo, hi, base[t].index, start[t], end[t]);
+      }
+    }
+    for (int i = 0; i < n; i++) {
+      Instr instr = f.code.get(i);
+      if (instr.op == Instr.ARG && base[instr.a] != null) {
+        int call = i;
+        while (call < n - 1 && f.code.get(call).op != Instr.CALL) {
+          call++;
+        }
+        cover(lo, hi, base[instr.a].index, i, call);
+      }
+    }
+    widen(f, lo, hi);
+
+    // Place the locals, first fit in order of where their ranges start.
+    ArrayList<Var> order = new ArrayList<Var>();
+    for (Var v : f.locals) {
+      if (hi[v.index] >= 0) {
+        order.add(v);
+      }
+    }
+    order.sort((x, y) -> lo[x.index] != lo[y.index] ? lo[x.index] - lo[y.index] : y.slots() - x.slots());
+    int[] busy = new int[8]; // last position each slot is held to
+    int top = 0;
+    int[] slot = new int[vars];
+    for (Var v : order) {
+      int s = 0;
+      while (!free(busy, top, s, v.slots(), lo[v.index])) {
+        s++;
+      }
+      if (s + v.slots() > busy.length) {
+        busy = Arrays.copyOf(busy, Math.max(busy.length * 2, s + v.slots()));
+      }
+      for (int k = s; k < s + v.slots(); k++) {
+        busy[k] = k < top ? Math.max(busy[k], hi[v.index]) : hi[v.index];
+      }
+      top = Math.max(top, s + v.slots());
+      slot[v.index] = s;
+    }
+    if (paramSlots + top < f.frameSize) {
+      for (Var v : f.locals) {
+        // A local no instruction names any more needs no slot of its own.
+        v.offset = -(paramSlots + (hi[v.index] >= 0 ? slot[v.index] : 0));
+      }
+      f.frameSize = paramSlots + top;
+    }
+    after += f.frameSize - paramSlots;
+  }
+
+  private static void cover(int[] lo, int[] hi, int v, int from, int to) {
+    lo[v] = Math.min(lo[v], from);
+    hi[v] = Math.max(hi[v], to);
+  }
+
+  /* True when slots s .. s + width - 1 are all free from position from on. */
+  private static boolean free(int[] busy, int top, int s, int width, int from) {
+    for (int k = s; k < s + width && k < top; k++) {
+      if (busy[k] >= from) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* Widens the range of every array over the backward jumps it overlaps, until none is left. */
+  private static void widen(Function f, int[] lo, int[] hi) {
+    int[] labelAt = new int[f.labels];
+    for (int i = 0; i < f.code.size(); i++) {
+      if (f.code.get(i).op == Instr.LABEL) {
+        labelAt[f.code.get(i).label] = i;
+      }
+    }
+    ArrayList<int[]> loops = new ArrayList<int[]>();
+    for (int i = 0; i < f.code.size(); i++) {
+      Instr instr = f.code.get(i);
+      if ((instr.op == Instr.JUMP || instr.op == Instr.JCOND) && labelAt[instr.label] < i) {
+        loops.add(new int[] { labelAt[instr.label], i });
+      }
+    }
+    for (Var v : f.locals) {
+      if (!v.isArray() || hi[v.index] < 0) {
+        continue;
+      }
+      for (boolean changed = true; changed;) {
+        changed = false;
+        for (int[] loop : loops) {
+          if (loop[0] <= hi[v.index] && loop[1] >= lo[v.index]
+              && (loop[0] < lo[v.index] || loop[1] > hi[v.index])) {
+            cover(lo, hi, v.index, loop[0], loop[1]);
+            changed = true;
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package ir;
+
+import java.util.ArrayList;
+
+/*
+  A function in three-address form. The frame holds the old fp at 0, the return address at -1,
+  the parameters from -2 down and then the locals; frameSize counts those slots. Locals of sibling
+  blocks share slots from the start, and FrameLayout gives those whose live ranges do not overlap
+  the same slots.
+*/
+public class Function {
+  public String name;
+  public int index = -1; // position in Program.functions
+  public boolean returnsValue;
+  public ArrayList<Var> params = new ArrayList<Var>();
+  public ArrayList<Var> locals = new ArrayList<Var>();
+  public ArrayList<Instr> code = new ArrayList<Instr>();
+  public int temps;  // temporaries t0 .. temps-1
+  public int labels; // labels L0 .. labels-1
+  public int frameSize = 2;
+
+  public Function(String name, boolean returnsValue) {
+    this.name = name;
+    this.returnsValue = returnsValue;
+  }
+
+  /* Number of parameters and locals; their Var.index runs from 0 to vars() - 1. */
+  public int vars() {
+    return params.size() + locals.size();
+  }
+
+  public int newTemp() {
+    return temps++;
+  }
+
+  public int newLabel() {
+    return labels++;
+  }
+
+  public Instr emit(Instr instr) {
+    code.add(instr);
+    return instr;
+  }
+
+  /* Appends the listing of the function to sb. */
+  public void dump(StringBuilder sb) {
+    sb.append("function ").append(name).append('(');
+    for (int i = 0; i < params.size(); i++) {
+      sb.append(i > 0 ? ", " : "").append(params.get(i));
+    }
+    sb.append(')');
+    if (!locals.isEmpty()) {
+      sb.append("  locals");
+      for (Var v : locals) {
+        sb.append(' ').append(v);
+      }
+    }
+    sb.append("  frame ").append(frameSize).append('\n');
+    for (Instr instr : code) {
+      sb.append(instr.op == Instr.LABEL ? "" : "    ").append(instr).append('\n');
+    }
+  }
+}
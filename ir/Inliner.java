@@ -0,0 +1,237 @@
+package ir;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+  Inlining of small leaf functions. A call costs about ten TM instructions for the arguments, the
+  frame and the return even when the callee does almost nothing, so a call of a function that calls
+  no other function of the program, is not recursive and has at most budget IR instructions is
+  replaced by a copy of its body. Functions are visited callees first in the order of the call graph,
+  so a function whose own calls were all inlined is a leaf for its callers in turn.
+
+  The copy gets fresh temporaries and labels, and the parameters and locals of the callee become
+  locals of the caller, so nothing in the copy can capture a name of the caller. They are used only
+  within the copy, so the copies of all calls in a function share the same slots past its own
+  locals. A parameter the callee never assigns is not copied at all: its loads read the argument
+  directly, which always covers array parameters. A body ending in its only return hands its value
+  straight to the users of the call; otherwise every return stores the value into a result local
+  and jumps to the end of the copy.
+*/
+public class Inliner {
+  public final static int BUDGET = 16;
+
+  public final int budget;
+  public int inlined, kept;
+  public LinkedHashMap<String, Integer> sites = new LinkedHashMap<String, Integer>(); // "caller <- callee" -> calls
+
+  public Inliner(int budget) {
+    this.budget = budget;
+  }
+
+  public void run(Program program) {
+    CallGraph graph = new CallGraph(program);
+    boolean[] small = new boolean[graph.size]; // a leaf within the budget, once visited
+    for (int k = 0; k < graph.size; k++) {
+      int f = graph.order[k];
+      Function fn = program.functions.get(f);
+      run(program, graph, fn, small);
+      small[f] = !graph.recursive[f] && isLeaf(fn) && size(fn) <= budget;
+    }
+  }
+
+  private void run(Program program, CallGraph graph, Function f, boolean[] small) {
+    ArrayList<Instr> code = f.code;
+    ArrayList<Instr> out = new ArrayList<Instr>(code.size());
+    int[] alias = new int[f.temps]; // temporary that replaces the result of an inlined call, or -1
+    int base = f.frameSize; // where the locals of every copy start
+    int frameSize = base;
+    boolean any = false;
+    for (int i = 0; i < alias.length; i++) {
+      alias[i] = -1;
+    }
+    for (Instr instr : code) {
+      Function callee = instr.op == Instr.CALL ? program.callee(instr) : null;
+      if (callee == null) {
+        out.add(instr);
+        continue;
+      }
+      int n = callee.params.size();
+      if (callee == f || !small[callee.index] || !isArgs(out, n)
+          || (instr.dst >= 0 && !callee.returnsValue)) {
+        kept++;
+        out.add(instr);
+        continue;
+      }
+      int[] args = new int[n];
+      for (int p = n - 1; p >= 0; p--) {
+        args[p] = out.remove(out.size() - 1).a;
+      }
+      f.frameSize = base;
+      expand(f, instr, callee, args, out, alias);
+      frameSize = Math.max(frameSize, f.frameSize);
+      inlined++;
+      any = true;
+      String site = f.name + " <- " + callee.name;
+      Integer count = sites.get(site);
+      sites.put(site, count == null ? 1 : count + 1);
+    }
+    f.frameSize = frameSize;
+    if (!any) {
+      return;
+    }
+    for (Instr instr : out) {
+      instr.a = resolve(alias, instr.a);
+      instr.b = resolve(alias, instr.b);
+    }
+    f.code = out;
+  }
+
+  private static int resolve(int[] alias, int t) {
+    while (t >= 0 && t < alias.length && alias[t] >= 0) {
+      t = alias[t];
+    }
+    return t;
+  }
+
+  /* True when the last n instructions of out pass arguments 0 .. n - 1, and nothing before them does. */
+  private static boolean isArgs(ArrayList<Instr> out, int n) {
+    int first = out.size() - n;
+    if (first < 0 || (first > 0 && out.get(first - 1).op == Instr.ARG)) {
+      return false;
+    }
+    for (int p = 0; p < n; p++) {
+      Instr arg = out.get(first + p);
+      if (arg.op != Instr.ARG || arg.imm != p) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void expand(Function f, Instr call, Function callee, int[] args, ArrayList<Instr> out, int[] alias) {
+    int tempBase = f.temps;
+    f.temps += callee.temps;
+    int labelBase = f.labels;
+    f.labels += callee.labels;
+
+    boolean[] assigned = new boolean[callee.vars()];
+    int returns = 0;
+    for (Instr instr : callee.code) {
+      if (instr.op == Instr.STORE && instr.var.kind != Var.GLOBAL) {
+        assigned[instr.var.index] = true;
+      }
+      returns += instr.op == Instr.RET ? 1 : 0;
+    }
+    Var[] vars = new Var[callee.vars()];
+    for (int p = 0; p < args.length; p++) {
+      if (assigned[p]) {
+        vars[p] = local(f, callee, callee.params.get(p));
+        Instr store = new Instr(Instr.STORE);
+        store.var = vars[p];
+        store.a = args[p];
+        out.add(store);
+      }
+    }
+    for (Var v : callee.locals) {
+      vars[v.index] = local(f, callee, v);
+    }
+    Instr last = callee.code.get(callee.code.size() - 1);
+    boolean direct = returns == 1 && last.op == Instr.RET;
+    int end = direct ? -1 : f.newLabel();
+    Var result = direct || call.dst < 0 ? null : local(f, callee, new Var("result", Var.LOCAL, 0, 0));
+
+    int[] rename = new int[callee.temps];
+    for (int t = 0; t < rename.length; t++) {
+      rename[t] = tempBase + t;
+    }
+    for (Instr instr : callee.code) {
+      if (instr.op == Instr.LOAD && instr.var.kind == Var.PARAM && !assigned[instr.var.index]) {
+        rename[instr.dst] = args[instr.var.index];
+        continue;
+      }
+      if (instr.op == Instr.RET) {
+        if (direct) {
+          if (call.dst >= 0 && instr.a >= 0) {
+            alias[call.dst] = rename[instr.a];
+          } else if (call.dst >= 0) {
+            Instr zero = new Instr(Instr.CONST);
+            zero.dst = call.dst;
+            out.add(zero);
+          }
+          continue;
+        }
+        if (result != null && instr.a >= 0) {
+          Instr store = new Instr(Instr.STORE);
+          store.var = result;
+          store.a = rename[instr.a];
+          out.add(store);
+        }
+        if (instr != last) {
+          Instr jump = new Instr(Instr.JUMP);
+          jump.label = end;
+          out.add(jump);
+        }
+        continue;
+      }
+      Instr copy = new Instr(instr.op);
+      copy.imm = instr.imm;
+      copy.function = instr.function;
+      copy.callee = instr.callee;
+      copy.label = instr.label >= 0 ? labelBase + instr.label : -1;
+      copy.var = instr.var == null || instr.var.kind == Var.GLOBAL ? instr.var : vars[instr.var.index];
+      copy.a = instr.a >= 0 ? rename[instr.a] : -1;
+      copy.b = instr.b >= 0 ? rename[instr.b] : -1;
+      copy.dst = instr.dst >= 0 ? rename[instr.dst] : -1;
+      out.add(copy);
+    }
+    if (!direct) {
+      Instr label = new Instr(Instr.LABEL);
+      label.label = end;
+      out.add(label);
+      if (result != null) {
+        Instr load = new Instr(Instr.LOAD);
+        load.var = result;
+        load.dst = call.dst;
+        out.add(load);
+      }
+    }
+  }
+
+  /* A new local of f standing for v of the inlined callee. */
+  private static Var local(Function f, Function callee, Var v) {
+    Var var = new Var(callee.name + "." + v.name, Var.LOCAL, -f.frameSize, v.size);
+    var.index = f.vars();
+    f.frameSize += var.slots();
+    f.locals.add(var);
+    return var;
+  }
+
+  private static boolean isLeaf(Function f) {
+    for (Instr instr : f.code) {
+      if (instr.op == Instr.CALL && instr.function >= 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /* IR instructions of f, not counting labels. */
+  private static int size(Function f) {
+    int n = 0;
+    for (Instr instr : f.code) {
+      n += instr.op == Instr.LABEL ? 0 : 1;
+    }
+    return n;
+  }
+
+  public void report(PrintStream out) {
+    out.println("Inlining: " + inlined + " call sites inlined, " + kept + " kept (budget " + budget
+        + " instructions)");
+    for (Map.Entry<String, Integer> site : sites.entrySet()) {
+      out.printf("  %-30s %4d%n", site.getKey(), site.getValue());
+    }
+  }
+}
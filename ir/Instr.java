@@ -0,0 +1,156 @@
+package ir;
+
+/*
+  One three-address instruction. Temporaries are virtual registers numbered per function and
+  defined exactly once; variables live in memory and are only reached through LOAD, STORE and ADDR.
+
+    CONST   dst = imm
+    LOAD    dst = var            (imm is a constant element index into an array)
+    STORE   var = a              (imm as for LOAD)
+    ADDR    dst = &var           address of element 0 of an array
+    LOADI   dst = [a]
+    STOREI  [a] = b
+    ADD, SUB, MUL, DIV   dst = a op b
+    SET     dst = (a rel 0)      1 or 0, rel is in imm
+    CHECK   0 <= a < imm         halts otherwise; imm -1 checks the lower bound only
+    ARG     argument imm = a     arguments go right before their CALL
+    CALL    dst = callee()       dst is -1 when the result is unused; function is the index of the
+            callee in Program.functions, or Program.INPUT or OUTPUT, and callee its name for listings.
+            A tail CALL and its ARGs reuse the frame of the calling function: the arguments replace
+            its parameters and the callee returns straight to its caller, so nothing follows it.
+    RET     return a             a is -1 for a void return
+    JUMP    goto label
+    JCOND   if (a rel 0) goto label
+    LABEL   label:
+*/
+public class Instr {
+  public final static int CONST = 0;
+  public final static int LOAD = 1;
+  public final static int STORE = 2;
+  public final static int ADDR = 3;
+  public final static int LOADI = 4;
+  public final static int STOREI = 5;
+  public final static int ADD = 6;
+  public final static int SUB = 7;
+  public final static int MUL = 8;
+  public final static int DIV = 9;
+  public final static int SET = 10;
+  public final static int CHECK = 11;
+  public final static int ARG = 12;
+  public final static int CALL = 13;
+  public final static int RET = 14;
+  public final static int JUMP = 15;
+  public final static int JCOND = 16;
+  public final static int LABEL = 17;
+
+  public final static String[] NAMES = { "const", "load", "store", "addr", "loadi", "storei", "add", "sub", "mul",
+      "div", "set", "check", "arg", "call", "ret", "jump", "jcond", "label" };
+
+  // Relations of SET and JCOND, comparing a against 0. Each is paired with its negation.
+  public final static int EQ = 0;
+  public final static int NE = 1;
+  public final static int LT = 2;
+  public final static int GE = 3;
+  public final static int GT = 4;
+  public final static int LE = 5;
+
+  public final static String[] RELATIONS = { "==", "!=", "<", ">=", ">", "<=" };
+  final static String[] OPERATORS = { "+", "-", "*", "/" };
+
+  public int op;
+  public int dst = -1;
+  public int a = -1;
+  public int b = -1;
+  public int imm;
+  public int label = -1;
+  public Var var;
+  public int function = -1;
+  public String callee;
+  public boolean tail;
+
+  public Instr(int op) {
+    this.op = op;
+  }
+
+  public static int negate(int rel) {
+    return rel ^ 1;
+  }
+
+  public static boolean isBinary(int op) {
+    return op >= ADD && op <= DIV;
+  }
+
+  /* True when control may continue with the next instruction. */
+  public boolean fallsThrough() {
+    return op != JUMP && op != RET && !tail;
+  }
+
+  public boolean isBranch() {
+    return op == JUMP || op == JCOND;
+  }
+
+  /* Temporaries read by the instruction, appended to uses; returns how many. */
+  public int uses(int[] uses) {
+    int n = 0;
+    if (a >= 0) {
+      uses[n++] = a;
+    }
+    if (b >= 0) {
+      uses[n++] = b;
+    }
+    return n;
+  }
+
+  /* Reads or writes memory, or transfers control out of the function. */
+  public boolean hasSideEffects() {
+    return op == STORE || op == STOREI || op == CHECK || op == ARG || op == CALL || op == RET || op == DIV;
+  }
+
+  private static String t(int temp) {
+    return "t" + temp;
+  }
+
+  private String element() {
+    return var.isArray() ? var.name + "[" + imm + "]" : var.name;
+  }
+
+  public String toString() {
+    switch (op) {
+    case CONST:
+      return t(dst) + " = " + imm;
+    case LOAD:
+      return t(dst) + " = " + element();
+    case STORE:
+      return element() + " = " + t(a);
+    case ADDR:
+      return t(dst) + " = &" + var.name;
+    case LOADI:
+      return t(dst) + " = [" + t(a) + "]";
+    case STOREI:
+      return "[" + t(a) + "] = " + t(b);
+    case ADD:
+    case SUB:
+    case MUL:
+    case DIV:
+      return t(dst) + " = " + t(a) + " " + OPERATORS[op - ADD] + " " + t(b);
+    case SET:
+      return t(dst) + " = " + t(a) + " " + RELATIONS[imm] + " 0";
+    case CHECK:
+      return "check 0 <= " + t(a) + (imm == -1 ? "" : " < " + imm);
+    case ARG:
+      return (tail ? "tail arg " : "arg ") + imm + " = " + t(a);
+    case CALL:
+      return (dst >= 0 ? t(dst) + " = " : "") + (tail ? "tail call " : "call ") + callee;
+    case RET:
+      return a >= 0 ? "return " + t(a) : "return";
+    case JUMP:
+      return "goto L" + label;
+    case JCOND:
+      return "if " + t(a) + " " + RELATIONS[imm] + " 0 goto L" + label;
+    case LABEL:
+      return "L" + label + ":";
+    default:
+      return NAMES[op];
+    }
+  }
+}
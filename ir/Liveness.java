@@ -0,0 +1,134 @@
+package ir;
+
+import java.util.Arrays;
+
+/*
+  Live temporaries and live scalar locals. Only names that can be live across a block boundary get a
+  bit: the temporaries used outside the block that defines them, then every scalar parameter and local.
+  A temporary used only in its own block is never live into or out of any block, and leaving those out
+  keeps the sets as small as the names that matter. Globals and arrays are not tracked, since calls and
+  stores through addresses reach them. A name is live at a point when some path from there reads it
+  before it is written again.
+*/
+public class Liveness extends Dataflow {
+  final Function f;
+  public final int[] tempBit; // bit of every temporary, -1 for those local to a block
+  public final int[] varBit;  // bit of every parameter and local, -1 for arrays
+  public final int[] name;    // temporary t as t, variable v as temps + v.index, for every bit
+
+  public Liveness(CFG cfg) {
+    this(cfg, names(cfg));
+  }
+
+  private Liveness(CFG cfg, int[] name) {
+    super(cfg, name.length, false);
+    f = cfg.function;
+    this.name = name;
+    tempBit = new int[f.temps];
+    varBit = new int[f.vars()];
+    Arrays.fill(tempBit, -1);
+    Arrays.fill(varBit, -1);
+    for (int bit = 0; bit < name.length; bit++) {
+      if (name[bit] < f.temps) {
+        tempBit[name[bit]] = bit;
+      } else {
+        varBit[name[bit] - f.temps] = bit;
+      }
+    }
+    for (int b = 0; b < cfg.blocks; b++) {
+      int at = base(b);
+      for (int i = cfg.end[b] - 1; i >= cfg.start[b]; i--) {
+        Instr instr = f.code.get(i);
+        int d = def(instr);
+        if (d >= 0) {
+          set(kill, at, d);
+          clear(gen, at, d);
+        }
+        addUses(instr, gen, at);
+      }
+    }
+    solve();
+  }
+
+  /* The names given a bit: temporaries used outside their defining block, then the scalar variables. */
+  private static int[] names(CFG cfg) {
+    Function f = cfg.function;
+    int[] defBlock = new int[f.temps];
+    boolean[] global = new boolean[f.temps];
+    int count = 0;
+    int[] u = new int[2];
+    for (int i = 0; i < f.code.size(); i++) {
+      Instr instr = f.code.get(i);
+      for (int k = instr.uses(u) - 1; k >= 0; k--) {
+        if (defBlock[u[k]] != cfg.blockOf[i] && !global[u[k]]) {
+          global[u[k]] = true;
+          count++;
+        }
+      }
+      if (instr.dst >= 0) {
+        defBlock[instr.dst] = cfg.blockOf[i];
+      }
+    }
+    int vars = 0;
+    for (Var v : f.params) {
+      vars += v.isLocalScalar() ? 1 : 0;
+    }
+    for (Var v : f.locals) {
+      vars += v.isLocalScalar() ? 1 : 0;
+    }
+    int[] name = new int[count + vars];
+    int bit = 0;
+    for (int t = 0; t < f.temps; t++) {
+      if (global[t]) {
+        name[bit++] = t;
+      }
+    }
+    for (Var v : f.params) {
+      if (v.isLocalScalar()) {
+        name[bit++] = f.temps + v.index;
+      }
+    }
+    for (Var v : f.locals) {
+      if (v.isLocalScalar()) {
+        name[bit++] = f.temps + v.index;
+      }
+    }
+    return name;
+  }
+
+  /* Bit of the name an instruction writes, or -1 when it writes none that is tracked. */
+  public int def(Instr instr) {
+    if (instr.dst >= 0) {
+      return tempBit[instr.dst];
+    }
+    if (instr.op == Instr.STORE && instr.var.isLocalScalar()) {
+      return varBit[instr.var.index];
+    }
+    return -1;
+  }
+
+  private void addUses(Instr instr, long[] set, int at) {
+    if (instr.a >= 0 && tempBit[instr.a] >= 0) {
+      set(set, at, tempBit[instr.a]);
+    }
+    if (instr.b >= 0 && tempBit[instr.b] >= 0) {
+      set(set, at, tempBit[instr.b]);
+    }
+    if (instr.op == Instr.LOAD && instr.var.isLocalScalar()) {
+      set(set, at, varBit[instr.var.index]);
+    }
+  }
+
+  /* Steps live, a set of words longs at base, backward over instr: from the names live after it to those before it. */
+  public void step(Instr instr, long[] live, int at) {
+    int d = def(instr);
+    if (d >= 0) {
+      clear(live, at, d);
+    }
+    addUses(instr, live, at);
+  }
+
+  public boolean liveOut(int b, Var var) {
+    return var.isLocalScalar() && out(b, varBit[var.index]);
+  }
+}
@@ -0,0 +1,256 @@
+package ir;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+/*
+  Loop rotation and loop-invariant code motion. IRGen lowers a while loop with its test at the top
+  and a jump back at the bottom:
+
+    top:  test; if (!cond) goto end; body; goto top; end:
+
+  Rotation turns that into a guard in front of the loop and the test at the bottom, so an iteration
+  runs one branch instead of two, and the test is still evaluated the same number of times:
+
+          test'; if (!cond') goto end; body: body; test; if (cond) goto body; end:
+
+  The guard is a copy of the test with temporaries of its own. Loops are rotated innermost first.
+
+  The code between the guard and the body label runs once, only when the loop is entered. Pure
+  arithmetic whose operands do not change inside the loop, such as high - 1 in a test, is moved
+  there together with the loads and constants it reads. A load is invariant when nothing in the loop
+  stores to the variable, and for a global also when the loop makes no call. Division is never
+  moved since it may stop the program, and loads of array elements are never moved.
+*/
+public class Loops {
+  public int rotated, hoisted;
+
+  public void run(Program program) {
+    for (Function f : program.functions) {
+      run(f);
+    }
+  }
+
+  public void run(Function f) {
+    int bottom;
+    while ((bottom = nextLoop(f)) >= 0) {
+      rotate(f, bottom);
+    }
+  }
+
+  /* Index of the first "goto top" that closes a loop of the shape IRGen emits, or -1. */
+  private int nextLoop(Function f) {
+    ArrayList<Instr> code = f.code;
+    for (int i = 0; i + 1 < code.size(); i++) {
+      Instr jump = code.get(i);
+      if (jump.op != Instr.JUMP || code.get(i + 1).op != Instr.LABEL) {
+        continue;
+      }
+      int top = labelAt(f, jump.label);
+      if (top < 0 || top > i || targets(f, jump.label) != 1) {
+        continue;
+      }
+      int test = testEnd(f, top);
+      if (test >= 0 && test < i && code.get(test).label == code.get(i + 1).label) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int labelAt(Function f, int label) {
+    for (int i = 0; i < f.code.size(); i++) {
+      Instr instr = f.code.get(i);
+      if (instr.op == Instr.LABEL && instr.label == label) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int targets(Function f, int label) {
+    int n = 0;
+    for (Instr instr : f.code) {
+      if (instr.isBranch() && instr.label == label) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  /* The JCOND ending the straight-line test after the loop label at top, or -1. */
+  private static int testEnd(Function f, int top) {
+    for (int i = top + 1; i < f.code.size(); i++) {
+      Instr instr = f.code.get(i);
+      if (instr.op == Instr.JCOND) {
+        return i;
+      }
+      if (instr.op == Instr.LABEL || instr.isBranch() || !instr.fallsThrough()) {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  private void rotate(Function f, int back) {
+    ArrayList<Instr> code = f.code;
+    int top = labelAt(f, code.get(back).label);
+    int test = testEnd(f, top);
+    Instr exit = code.get(test);
+    int body = f.newLabel();
+
+    ArrayList<Instr> out = new ArrayList<Instr>(code.size() + (test - top) + 1);
+    out.addAll(code.subList(0, top));
+    // Guard: the test with fresh temporaries.
+    int[] rename = new int[f.temps];
+    for (int i = top + 1; i <= test; i++) {
+      out.add(copy(f, code.get(i), rename));
+    }
+    int preheader = out.size();
+    out.add(label(body));
+    out.addAll(code.subList(test + 1, back));
+    // Bottom test: the original test, jumping back while the loop goes on.
+    out.addAll(code.subList(top + 1, test));
+    Instr again = new Instr(Instr.JCOND);
+    again.a = exit.a;
+    again.imm = Instr.negate(exit.imm);
+    again.label = body;
+    out.add(again);
+    int end = out.size();
+    out.addAll(code.subList(back + 1, code.size()));
+    f.code = out;
+    rotated++;
+    hoist(f, preheader, end);
+  }
+
+  private static Instr label(int label) {
+    Instr instr = new Instr(Instr.LABEL);
+    instr.label = label;
+    return instr;
+  }
+
+  /* A copy of instr whose temporaries are renamed through rename, defining a fresh one. */
+  private static Instr copy(Function f, Instr instr, int[] rename) {
+    Instr c = new Instr(instr.op);
+    c.imm = instr.imm;
+    c.label = instr.label;
+    c.var = instr.var;
+    c.function = instr.function;
+    c.callee = instr.callee;
+    c.a = instr.a >= 0 && rename[instr.a] > 0 ? rename[instr.a] - 1 : instr.a;
+    c.b = instr.b >= 0 && rename[instr.b] > 0 ? rename[instr.b] - 1 : instr.b;
+    if (instr.dst >= 0) {
+      c.dst = f.newTemp();
+      if (instr.dst < rename.length) {
+        rename[instr.dst] = c.dst + 1;
+      }
+    }
+    return c;
+  }
+
+  /* Moves the invariant computations of the loop whose body label is at preheader and whose last
+     instruction is at end - 1 to just before the body label. */
+  private void hoist(Function f, int preheader, int end) {
+    ArrayList<Instr> code = f.code;
+    boolean calls = false;
+    boolean[] stored = new boolean[f.vars()];
+    ArrayList<Var> storedGlobals = new ArrayList<Var>();
+    boolean[] inLoop = new boolean[f.temps];
+    for (int i = preheader; i < end; i++) {
+      Instr instr = code.get(i);
+      calls |= instr.op == Instr.CALL;
+      if (instr.op == Instr.STORE) {
+        if (instr.var.kind == Var.GLOBAL) {
+          storedGlobals.add(instr.var);
+        } else {
+          stored[instr.var.index] = true;
+        }
+      }
+      if (instr.dst >= 0) {
+        inLoop[instr.dst] = true;
+      }
+    }
+
+    boolean[] invariant = new boolean[f.temps];
+    boolean[] worth = new boolean[end - preheader];
+    boolean any = false;
+    for (int i = preheader; i < end; i++) {
+      Instr instr = code.get(i);
+      if (instr.dst < 0 || !isInvariant(instr, inLoop, invariant, calls, stored, storedGlobals)) {
+        continue;
+      }
+      invariant[instr.dst] = true;
+      if (instr.op != Instr.CONST && instr.op != Instr.LOAD) {
+        // Reloading a single value costs as much as keeping it in a register; computing does not.
+        worth[i - preheader] = true;
+        any = true;
+      }
+    }
+    if (!any) {
+      return;
+    }
+    // Move what the worthwhile computations read along with them, scanning backward so operands
+    // are marked after their users.
+    boolean[] move = new boolean[f.temps];
+    for (int i = end - 1; i >= preheader; i--) {
+      Instr instr = code.get(i);
+      if (instr.dst >= 0 && (worth[i - preheader] || move[instr.dst])) {
+        move[instr.dst] = true;
+        if (instr.a >= 0) {
+          move[instr.a] = true;
+        }
+        if (instr.b >= 0) {
+          move[instr.b] = true;
+        }
+      }
+    }
+    ArrayList<Instr> moved = new ArrayList<Instr>();
+    ArrayList<Instr> rest = new ArrayList<Instr>();
+    for (int i = preheader; i < end; i++) {
+      Instr instr = code.get(i);
+      if (instr.dst >= 0 && invariant[instr.dst] && move[instr.dst]) {
+        moved.add(instr);
+      } else {
+        rest.add(instr);
+      }
+    }
+    ArrayList<Instr> out = new ArrayList<Instr>(code.size());
+    out.addAll(code.subList(0, preheader));
+    out.addAll(moved);
+    out.addAll(rest);
+    out.addAll(code.subList(end, code.size()));
+    f.code = out;
+    hoisted += moved.size();
+  }
+
+  private static boolean isInvariant(Instr instr, boolean[] inLoop, boolean[] invariant, boolean calls,
+      boolean[] stored, ArrayList<Var> storedGlobals) {
+    switch (instr.op) {
+    case Instr.CONST:
+      return true;
+    case Instr.LOAD:
+      if (instr.var.isArray()) {
+        return false;
+      }
+      if (instr.var.kind == Var.GLOBAL) {
+        return !calls && !storedGlobals.contains(instr.var);
+      }
+      return !stored[instr.var.index];
+    case Instr.ADD:
+    case Instr.SUB:
+    case Instr.MUL:
+    case Instr.SET:
+      return isOperandInvariant(instr.a, inLoop, invariant) && isOperandInvariant(instr.b, inLoop, invariant);
+    default:
+      return false;
+    }
+  }
+
+  private static boolean isOperandInvariant(int t, boolean[] inLoop, boolean[] invariant) {
+    return t < 0 || !inLoop[t] || invariant[t];
+  }
+
+  public void report(PrintStream out) {
+    out.println("Loops: " + rotated + " rotated, " + hoisted + " invariant instructions hoisted");
+  }
+}
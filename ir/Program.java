@@ -0,0 +1,46 @@
+package ir;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/*
+  A whole program in three-address form: the globals, laid out from gp down, and the functions.
+  input and output are runtime routines and have no Function of their own; a CALL names them by the
+  negative indexes INPUT and OUTPUT and every other callee by its index in functions.
+*/
+public class Program {
+  public final static int INPUT = -2;
+  public final static int OUTPUT = -3;
+
+  public ArrayList<Var> globals = new ArrayList<Var>();
+  public ArrayList<Function> functions = new ArrayList<Function>();
+  public HashMap<String, Function> byName = new HashMap<String, Function>();
+  public int globalSize;
+
+  public void add(Function f) {
+    f.index = functions.size();
+    functions.add(f);
+    byName.put(f.name, f);
+  }
+
+  public Function lookup(String name) {
+    return byName.get(name);
+  }
+
+  /* The function a CALL calls, null for a runtime routine. */
+  public Function callee(Instr call) {
+    return call.function >= 0 ? functions.get(call.function) : null;
+  }
+
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Var v : globals) {
+      sb.append("global ").append(v).append('\n');
+    }
+    for (Function f : functions) {
+      sb.append('\n');
+      f.dump(sb);
+    }
+    return sb.toString();
+  }
+}
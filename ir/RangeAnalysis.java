@@ -0,0 +1,515 @@
+package ir;
+
+import java.util.Arrays;
+
+/*
+  Interval analysis of the int values in a program. Every scalar parameter and local has a range
+  [lo, hi] at the start of each block, and every temporary the range of the value it is defined with;
+  a range with lo > hi is empty, meaning no value has reached it yet. Arithmetic that could wrap
+  around yields the full range, so the ranges hold for the TM's wrapping arithmetic.
+
+  Inside a function the ranges flow forward over the CFG. A conditional jump on x - y, the way every
+  comparison is lowered, narrows x and y on each of its edges, which gives a loop body the bound its
+  test establishes; a bounds check narrows the variable it checked for the code after it. At loop
+  headers a bound that keeps moving is widened to the end of the int range, so loops are analyzed a
+  bounded number of times, and a few passes that recompute every block from its edges then bring
+  back the bounds the loop tests impose. That first solution is found treating the ends of the int
+  range as infinite, which keeps i + 1 from wrapping to the full range after i was widened; it is
+  kept only when it still holds with wrapping arithmetic, and found again with it otherwise.
+  Globals, array elements and input are unknown.
+
+  Across functions, the range of each parameter is joined over the arguments at all its calls and
+  the range of a call is the join of what the callee returns. The functions are analyzed again until
+  none of those change, widening them after a few rounds. Parameters of functions nothing calls,
+  main among them, are unknown.
+*/
+public class RangeAnalysis {
+  final static int MIN = Integer.MIN_VALUE;
+  final static int MAX = Integer.MAX_VALUE;
+  final static int WIDEN_AFTER = 3; // rounds over the program before growing summaries are widened
+  final static int NARROW_PASSES = 2;
+  // What scan does with the ranges on the edges out of a block.
+  final static int WIDEN = 0;  // join them into the successors, widening at loop headers
+  final static int NARROW = 1; // join them into the next entry ranges
+  final static int VERIFY = 2; // check that the successors' entry ranges include them
+  final static int LAST = 3;   // nothing; record the summaries instead
+
+  /* What the analysis knows about one function. */
+  static class Summary {
+    boolean called;
+    int[] paramLo, paramHi;
+    int retLo = MAX, retHi = MIN;
+    int[] tempLo, tempHi;
+  }
+
+  final Program program;
+  final Summary[] summaries; // by Function.index
+  int round;
+  boolean changed;
+  public int rounds;
+
+  // The function being analyzed.
+  Function f;
+  Summary summary;
+  CFG cfg;
+  int vars;
+  int[] inLo, inHi;   // variables at the start of every block, vars ints per block
+  boolean[] reached;
+  int[] nextLo, nextHi;
+  boolean[] nextReached;
+  int[] edgeLo, edgeHi;
+  boolean saturate;   // bounds are infinite and arithmetic does not wrap
+  boolean holds;
+  boolean[] header;
+  int[] lo, hi;       // variables at the current point
+  int[] tLo, tHi;     // temporaries
+  int[] defAt;        // instruction defining every temporary
+  int[] storeAt;      // last store to every variable in the current block, or -1
+  int[] queue;
+  boolean[] queued;
+  int head, tail;
+
+  public RangeAnalysis(Program program) {
+    this.program = program;
+    summaries = new Summary[program.functions.size()];
+    for (Function fn : program.functions) {
+      Summary s = new Summary();
+      s.paramLo = new int[fn.params.size()];
+      s.paramHi = new int[fn.params.size()];
+      Arrays.fill(s.paramLo, MAX);
+      Arrays.fill(s.paramHi, MIN);
+      summaries[fn.index] = s;
+    }
+    for (Function fn : program.functions) {
+      for (Instr instr : fn.code) {
+        if (instr.op == Instr.CALL && instr.function >= 0) {
+          summaries[instr.function].called = true;
+        }
+      }
+    }
+    for (Function fn : program.functions) {
+      Summary s = summaries[fn.index];
+      if (!s.called) {
+        Arrays.fill(s.paramLo, MIN);
+        Arrays.fill(s.paramHi, MAX);
+      }
+    }
+    do {
+      changed = false;
+      for (Function fn : program.functions) {
+        analyze(fn);
+      }
+      round++;
+    } while (changed);
+    rounds = round;
+  }
+
+  /* True when temporary t of f is known to hold a value in [low, high] wherever it is defined. */
+  public boolean within(Function fn, int t, int low, int high) {
+    Summary s = summaries[fn.index];
+    return s.tempLo[t] <= s.tempHi[t] && s.tempLo[t] >= low && s.tempHi[t] <= high;
+  }
+
+  private void analyze(Function fn) {
+    f = fn;
+    summary = summaries[fn.index];
+    cfg = new CFG(fn);
+    vars = fn.vars();
+    int blocks = cfg.blocks;
+    inLo = new int[blocks * vars];
+    inHi = new int[blocks * vars];
+    nextLo = new int[blocks * vars];
+    nextHi = new int[blocks * vars];
+    reached = new boolean[blocks];
+    nextReached = new boolean[blocks];
+    queue = new int[blocks + 1];
+    queued = new boolean[blocks];
+    header = new boolean[blocks];
+    lo = new int[vars];
+    hi = new int[vars];
+    edgeLo = new int[vars];
+    edgeHi = new int[vars];
+    tLo = new int[fn.temps];
+    tHi = new int[fn.temps];
+    Arrays.fill(tLo, MAX);
+    Arrays.fill(tHi, MIN);
+    defAt = new int[fn.temps];
+    storeAt = new int[vars];
+    for (int i = 0; i < fn.code.size(); i++) {
+      if (fn.code.get(i).dst >= 0) {
+        defAt[fn.code.get(i).dst] = i;
+      }
+    }
+    for (int b = 0; b < blocks; b++) {
+      for (int k = cfg.predStart[b]; k < cfg.predStart[b + 1]; k++) {
+        header[b] |= cfg.isBackEdge(cfg.pred[k], b);
+      }
+    }
+
+    if (!solve(true)) {
+      solve(false);
+    }
+    for (int i = 0; i < cfg.reachable; i++) {
+      scan(cfg.rpo[i], LAST);
+    }
+    summary.tempLo = tLo;
+    summary.tempHi = tHi;
+  }
+
+  /* Finds block entry ranges that every edge respects, with unbounded or with wrapping arithmetic.
+     Returns false when ranges found with unbounded arithmetic do not hold once it wraps. */
+  private boolean solve(boolean unbounded) {
+    saturate = unbounded;
+    int blocks = cfg.blocks;
+    entry(inLo, inHi);
+    Arrays.fill(reached, false);
+    reached[0] = true;
+    head = tail = 0;
+    enqueue(0);
+    while (head != tail) {
+      int b = queue[head];
+      head = head + 1 == queue.length ? 0 : head + 1;
+      queued[b] = false;
+      scan(b, WIDEN);
+    }
+    // Widening overshoots; recomputing every entry from its edges brings the bounds the loop tests
+    // impose back in, and stays a sound solution each time.
+    for (int pass = 0; pass < NARROW_PASSES; pass++) {
+      Arrays.fill(nextLo, MAX);
+      Arrays.fill(nextHi, MIN);
+      Arrays.fill(nextReached, false);
+      entry(nextLo, nextHi);
+      nextReached[0] = true;
+      for (int i = 0; i < cfg.reachable; i++) {
+        if (reached[cfg.rpo[i]]) {
+          scan(cfg.rpo[i], NARROW);
+        }
+      }
+      System.arraycopy(nextLo, 0, inLo, 0, blocks * vars);
+      System.arraycopy(nextHi, 0, inHi, 0, blocks * vars);
+      System.arraycopy(nextReached, 0, reached, 0, blocks);
+    }
+    saturate = false;
+    if (!unbounded) {
+      return true;
+    }
+    holds = true;
+    for (int i = 0; i < cfg.reachable && holds; i++) {
+      if (reached[cfg.rpo[i]]) {
+        scan(cfg.rpo[i], VERIFY);
+      }
+    }
+    return holds;
+  }
+
+  /* Ranges on entry to the function; parameters come first among the variables. */
+  private void entry(int[] eLo, int[] eHi) {
+    Arrays.fill(eLo, 0, vars, MIN);
+    Arrays.fill(eHi, 0, vars, MAX);
+    for (int p = 0; p < f.params.size(); p++) {
+      if (f.params.get(p).isLocalScalar()) {
+        eLo[p] = summary.paramLo[p];
+        eHi[p] = summary.paramHi[p];
+      }
+    }
+  }
+
+  private void enqueue(int b) {
+    if (!queued[b]) {
+      queued[b] = true;
+      queue[tail] = b;
+      tail = tail + 1 == queue.length ? 0 : tail + 1;
+    }
+  }
+
+  /* Runs block b from its entry ranges and hands the ranges on each outgoing edge to the mode. The
+     last scan, made once the ranges are stable, records arguments and return values in the summaries. */
+  private void scan(int b, int mode) {
+    boolean last = mode == LAST;
+    System.arraycopy(inLo, b * vars, lo, 0, vars);
+    System.arraycopy(inHi, b * vars, hi, 0, vars);
+    Arrays.fill(storeAt, -1);
+    for (int i = cfg.start[b]; i < cfg.end[b]; i++) {
+      Instr instr = f.code.get(i);
+      switch (instr.op) {
+      case Instr.CONST:
+        set(instr.dst, instr.imm, instr.imm);
+        break;
+      case Instr.LOAD:
+        if (instr.var.isLocalScalar()) {
+          set(instr.dst, lo[instr.var.index], hi[instr.var.index]);
+        } else {
+          set(instr.dst, MIN, MAX);
+        }
+        break;
+      case Instr.STORE:
+        if (instr.var.isLocalScalar()) {
+          lo[instr.var.index] = tLo[instr.a];
+          hi[instr.var.index] = tHi[instr.a];
+          storeAt[instr.var.index] = i;
+        }
+        break;
+      case Instr.ADD:
+      case Instr.SUB:
+      case Instr.MUL:
+      case Instr.DIV:
+        arithmetic(instr);
+        break;
+      case Instr.SET:
+        set(instr.dst, 0, 1);
+        break;
+      case Instr.CHECK: {
+        // Past the check the variable it came from is in bounds.
+        int v = origin(instr.a, b);
+        if (v >= 0) {
+          lo[v] = Math.max(lo[v], 0);
+          if (instr.imm >= 0) {
+            hi[v] = Math.min(hi[v], instr.imm - 1);
+          }
+        }
+        break;
+      }
+      case Instr.CALL: {
+        Summary callee = instr.function >= 0 ? summaries[instr.function] : null;
+        if (last && callee != null) {
+          for (int k = i - 1; k >= cfg.start[b] && f.code.get(k).op == Instr.ARG; k--) {
+            Instr arg = f.code.get(k);
+            if (arg.imm < callee.paramLo.length) {
+              int[] r = join(callee.paramLo[arg.imm], callee.paramHi[arg.imm], tLo[arg.a], tHi[arg.a]);
+              callee.paramLo[arg.imm] = r[0];
+              callee.paramHi[arg.imm] = r[1];
+            }
+          }
+        }
+        if (last && instr.tail) {
+          // The callee returns to this function's caller.
+          int[] r = callee != null ? join(summary.retLo, summary.retHi, callee.retLo, callee.retHi)
+              : join(summary.retLo, summary.retHi, MIN, MAX);
+          summary.retLo = r[0];
+          summary.retHi = r[1];
+        }
+        if (instr.dst >= 0) {
+          if (callee != null) {
+            set(instr.dst, callee.retLo, callee.retHi);
+          } else {
+            set(instr.dst, MIN, MAX);
+          }
+        }
+        break;
+      }
+      case Instr.RET:
+        if (last && instr.a >= 0) {
+          int[] r = join(summary.retLo, summary.retHi, tLo[instr.a], tHi[instr.a]);
+          summary.retLo = r[0];
+          summary.retHi = r[1];
+        }
+        break;
+      default:
+        if (instr.dst >= 0) {
+          set(instr.dst, MIN, MAX);
+        }
+      }
+    }
+    if (last) {
+      return;
+    }
+    Instr end = cfg.last(b);
+    for (int k = cfg.succStart[b]; k < cfg.succStart[b + 1]; k++) {
+      int s = cfg.succ[k];
+      System.arraycopy(lo, 0, edgeLo, 0, vars);
+      System.arraycopy(hi, 0, edgeHi, 0, vars);
+      if (end.op == Instr.JCOND) {
+        Instr first = f.code.get(cfg.start[s]);
+        boolean taken = first.op == Instr.LABEL && first.label == end.label;
+        boolean fall = s == b + 1;
+        if (taken != fall && !refine(b, end.a, taken ? end.imm : Instr.negate(end.imm), edgeLo, edgeHi)) {
+          continue; // the edge cannot be taken
+        }
+      }
+      if (mode == WIDEN) {
+        flow(s, edgeLo, edgeHi);
+      } else if (mode == NARROW) {
+        int at = s * vars;
+        nextReached[s] = true;
+        for (int v = 0; v < vars; v++) {
+          nextLo[at + v] = Math.min(nextLo[at + v], edgeLo[v]);
+          nextHi[at + v] = Math.max(nextHi[at + v], edgeHi[v]);
+        }
+      } else {
+        holds &= reached[s] && includes(s, edgeLo, edgeHi);
+      }
+    }
+  }
+
+  /* True when the entry ranges of block s include the ranges given for an edge into it. */
+  private boolean includes(int s, int[] eLo, int[] eHi) {
+    int at = s * vars;
+    for (int v = 0; v < vars; v++) {
+      if (eLo[v] <= eHi[v] && (eLo[v] < inLo[at + v] || eHi[v] > inHi[at + v])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void set(int t, int low, int high) {
+    tLo[t] = low;
+    tHi[t] = high;
+  }
+
+  /* Variable temporary t was loaded from in block b, if it still holds the value. */
+  private int origin(int t, int b) {
+    if (t < 0 || defAt[t] < cfg.start[b]) {
+      return -1;
+    }
+    Instr def = f.code.get(defAt[t]);
+    if (def.op != Instr.LOAD || !def.var.isLocalScalar() || storeAt[def.var.index] > defAt[t]) {
+      return -1;
+    }
+    return def.var.index;
+  }
+
+  private void arithmetic(Instr instr) {
+    int aLo = tLo[instr.a], aHi = tHi[instr.a], bLo = tLo[instr.b], bHi = tHi[instr.b];
+    if (aLo > aHi || bLo > bHi) {
+      set(instr.dst, MAX, MIN);
+      return;
+    }
+    long l, h;
+    switch (instr.op) {
+    case Instr.ADD:
+      l = (long) aLo + bLo;
+      h = (long) aHi + bHi;
+      break;
+    case Instr.SUB:
+      l = (long) aLo - bHi;
+      h = (long) aHi - bLo;
+      break;
+    case Instr.MUL: {
+      long p1 = (long) aLo * bLo, p2 = (long) aLo * bHi, p3 = (long) aHi * bLo, p4 = (long) aHi * bHi;
+      l = Math.min(Math.min(p1, p2), Math.min(p3, p4));
+      h = Math.max(Math.max(p1, p2), Math.max(p3, p4));
+      break;
+    }
+    default:
+      if (bLo <= 0 && bHi >= 0) {
+        // The program stops on a zero divisor; any other divisor between bLo and bHi is possible.
+        set(instr.dst, MIN, MAX);
+        return;
+      }
+      long q1 = (long) aLo / bLo, q2 = (long) aLo / bHi, q3 = (long) aHi / bLo, q4 = (long) aHi / bHi;
+      l = Math.min(Math.min(q1, q2), Math.min(q3, q4));
+      h = Math.max(Math.max(q1, q2), Math.max(q3, q4));
+    }
+    if (saturate) {
+      set(instr.dst, (int) Math.max(l, MIN), (int) Math.min(h, MAX));
+    } else if (l < MIN || h > MAX) {
+      set(instr.dst, MIN, MAX);
+    } else {
+      set(instr.dst, (int) l, (int) h);
+    }
+  }
+
+  /* Narrows the variables behind the test value t of block b's jump to what holds when t rel 0.
+     Returns false when no value can satisfy it. */
+  private boolean refine(int b, int t, int rel, int[] eLo, int[] eHi) {
+    int x = t, y = -1;
+    Instr def = f.code.get(defAt[t]);
+    if (defAt[t] >= cfg.start[b] && def.op == Instr.SUB) {
+      x = def.a;
+      y = def.b;
+      long l = (long) tLo[x] - tHi[y], h = (long) tHi[x] - tLo[y];
+      if (!saturate && (l < MIN || h > MAX)) {
+        return true; // x - y may wrap around, so its sign says nothing about x and y
+      }
+    }
+    long xLo = tLo[x], xHi = tHi[x];
+    long yLo = y >= 0 ? tLo[y] : 0, yHi = y >= 0 ? tHi[y] : 0;
+    long nxLo = xLo, nxHi = xHi, nyLo = yLo, nyHi = yHi;
+    switch (rel) {
+    case Instr.LT:
+      nxHi = Math.min(xHi, yHi - 1);
+      nyLo = Math.max(yLo, xLo + 1);
+      break;
+    case Instr.LE:
+      nxHi = Math.min(xHi, yHi);
+      nyLo = Math.max(yLo, xLo);
+      break;
+    case Instr.GT:
+      nxLo = Math.max(xLo, yLo + 1);
+      nyHi = Math.min(yHi, xHi - 1);
+      break;
+    case Instr.GE:
+      nxLo = Math.max(xLo, yLo);
+      nyHi = Math.min(yHi, xHi);
+      break;
+    case Instr.EQ:
+      nxLo = nyLo = Math.max(xLo, yLo);
+      nxHi = nyHi = Math.min(xHi, yHi);
+      break;
+    default:
+      return true;
+    }
+    if (xLo <= xHi && yLo <= yHi && (nxLo > nxHi || nyLo > nyHi)) {
+      return false;
+    }
+    narrow(origin(x, b), nxLo, nxHi, eLo, eHi);
+    if (y >= 0) {
+      narrow(origin(y, b), nyLo, nyHi, eLo, eHi);
+    }
+    return true;
+  }
+
+  private void narrow(int v, long low, long high, int[] eLo, int[] eHi) {
+    if (v >= 0 && eLo[v] <= eHi[v]) {
+      eLo[v] = (int) Math.max(eLo[v], Math.max(low, MIN));
+      eHi[v] = (int) Math.min(eHi[v], Math.min(high, MAX));
+    }
+  }
+
+  /* Joins the ranges at the end of an edge into the entry of block s. */
+  private void flow(int s, int[] eLo, int[] eHi) {
+    int at = s * vars;
+    if (!reached[s]) {
+      reached[s] = true;
+      System.arraycopy(eLo, 0, inLo, at, vars);
+      System.arraycopy(eHi, 0, inHi, at, vars);
+      enqueue(s);
+      return;
+    }
+    boolean grew = false;
+    for (int v = 0; v < vars; v++) {
+      int oldLo = inLo[at + v], oldHi = inHi[at + v];
+      // A range that was still empty takes its first value as it is.
+      boolean widen = header[s] && oldLo <= oldHi;
+      if (eLo[v] < oldLo) {
+        inLo[at + v] = widen ? MIN : eLo[v];
+        grew = true;
+      }
+      if (eHi[v] > oldHi) {
+        inHi[at + v] = widen ? MAX : eHi[v];
+        grew = true;
+      }
+    }
+    if (grew) {
+      enqueue(s);
+    }
+  }
+
+  /* Joins [low, high] into a summary range, widening it once the rounds have gone on for a while. */
+  private int[] join(int oldLo, int oldHi, int low, int high) {
+    int l = Math.min(oldLo, low), h = Math.max(oldHi, high);
+    if (l < oldLo || h > oldHi) {
+      changed = true;
+      if (round >= WIDEN_AFTER && oldLo <= oldHi) {
+        if (l < oldLo) {
+          l = MIN;
+        }
+        if (h > oldHi) {
+          h = MAX;
+        }
+      }
+    }
+    return new int[] { l, h };
+  }
+}
@@ -0,0 +1,99 @@
+package ir;
+
+/*
+  Reaching definitions of scalar locals. Every STORE to a scalar parameter or local is a definition,
+  numbered in code order; site[d] is the instruction of definition d. A definition reaches a point
+  when some path leads from it to that point without another store to its variable. A use that no
+  definition reaches sees the value the variable had on entry: the argument for a parameter.
+*/
+public class ReachingDefinitions extends Dataflow {
+  final Function f;
+  public final int[] site;
+  public final int[] defOf;  // definition number of every instruction, -1 for the rest
+  // Definitions of variable v are defs[defsStart[v]] .. defs[defsStart[v + 1] - 1].
+  final int[] defsStart, defs;
+
+  public ReachingDefinitions(CFG cfg) {
+    this(cfg, count(cfg.function));
+  }
+
+  private ReachingDefinitions(CFG cfg, int definitions) {
+    super(cfg, definitions, true);
+    f = cfg.function;
+    int n = f.code.size();
+    site = new int[definitions];
+    defOf = new int[n];
+    int vars = f.vars();
+    defsStart = new int[vars + 1];
+    defs = new int[definitions];
+    int d = 0;
+    for (int i = 0; i < n; i++) {
+      Instr instr = f.code.get(i);
+      defOf[i] = -1;
+      if (isDefinition(instr)) {
+        site[d] = i;
+        defOf[i] = d++;
+        defsStart[instr.var.index + 1]++;
+      }
+    }
+    for (int v = 0; v < vars; v++) {
+      defsStart[v + 1] += defsStart[v];
+    }
+    int[] fill = new int[vars];
+    for (d = 0; d < definitions; d++) {
+      int v = f.code.get(site[d]).var.index;
+      defs[defsStart[v] + fill[v]++] = d;
+    }
+
+    for (int b = 0; b < cfg.blocks; b++) {
+      int at = base(b);
+      for (int i = cfg.start[b]; i < cfg.end[b]; i++) {
+        if (defOf[i] >= 0) {
+          Var var = f.code.get(i).var;
+          for (int k = defsStart[var.index]; k < defsStart[var.index + 1]; k++) {
+            set(kill, at, defs[k]);
+            clear(gen, at, defs[k]);
+          }
+          set(gen, at, defOf[i]);
+          clear(kill, at, defOf[i]);
+        }
+      }
+    }
+    solve();
+  }
+
+  private static boolean isDefinition(Instr instr) {
+    return instr.op == Instr.STORE && instr.var.isLocalScalar();
+  }
+
+  private static int count(Function f) {
+    int n = 0;
+    for (Instr instr : f.code) {
+      if (isDefinition(instr)) {
+        n++;
+      }
+    }
+    return n;
+  }
+
+  /* Steps reaching, a set of words longs at base, forward over the instruction at index i. */
+  public void step(int i, long[] reaching, int at) {
+    if (defOf[i] >= 0) {
+      Var var = f.code.get(i).var;
+      for (int k = defsStart[var.index]; k < defsStart[var.index + 1]; k++) {
+        clear(reaching, at, defs[k]);
+      }
+      set(reaching, at, defOf[i]);
+    }
+  }
+
+  /* Number of definitions of var; a parameter or local with none keeps its entry value throughout. */
+  public int definitions(Var var) {
+    return var.isLocalScalar() ? defsStart[var.index + 1] - defsStart[var.index] : 0;
+  }
+
+  /* The k-th definition of var, as a definition number. */
+  public int definition(Var var, int k) {
+    return defs[defsStart[var.index] + k];
+  }
+}
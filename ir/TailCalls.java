@@ -0,0 +1,81 @@
+package ir;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+/*
+  Tail-call optimization. A call whose result is returned at once, return f(...), or a call in a void
+  function followed by a plain return, is marked as a tail call and the return after it is dropped.
+  The code generator then stores the arguments over the caller's own parameters and jumps to the
+  callee with the caller's return address, so the callee's frame replaces the caller's and a chain
+  of tail calls, self-recursive or not, runs in constant stack space.
+
+  The arguments only go over parameter slots, so a call with more arguments than the caller has
+  parameters is left alone, and so is a call that passes the address of one of the caller's local
+  arrays, since that array lives in the frame the callee would reuse.
+*/
+public class TailCalls {
+  public int self, sibling, kept;
+
+  public void run(Program program) {
+    for (Function f : program.functions) {
+      run(f);
+    }
+  }
+
+  public void run(Function f) {
+    ArrayList<Instr> code = f.code;
+    ArrayList<Instr> out = new ArrayList<Instr>(code.size());
+    Instr[] defs = new Instr[f.temps];
+    for (Instr instr : code) {
+      if (instr.dst >= 0) {
+        defs[instr.dst] = instr;
+      }
+    }
+    for (int i = 0; i < code.size(); i++) {
+      Instr instr = code.get(i);
+      out.add(instr);
+      if (instr.op != Instr.CALL || i + 1 >= code.size()) {
+        continue;
+      }
+      Instr ret = code.get(i + 1);
+      if (ret.op != Instr.RET || (ret.a >= 0 && ret.a != instr.dst) || (ret.a < 0 && f.returnsValue)) {
+        continue;
+      }
+      int first = i;
+      while (first > 0 && code.get(first - 1).op == Instr.ARG) {
+        first--;
+      }
+      if (i - first > f.params.size() || passesLocalArray(code, first, i, defs)) {
+        kept++;
+        continue;
+      }
+      for (int k = first; k <= i; k++) {
+        code.get(k).tail = true;
+      }
+      instr.dst = -1;
+      if (instr.function == f.index) {
+        self++;
+      } else {
+        sibling++;
+      }
+      i++; // the return is no longer reached
+    }
+    f.code = out;
+  }
+
+  private static boolean passesLocalArray(ArrayList<Instr> code, int first, int call, Instr[] defs) {
+    for (int k = first; k < call; k++) {
+      Instr def = defs[code.get(k).a];
+      if (def != null && def.op == Instr.ADDR && def.var.kind == Var.LOCAL) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public void report(PrintStream out) {
+    out.println("Tail calls: " + self + " self-recursive and " + sibling + " other calls reuse their caller's frame, "
+        + kept + " kept");
+  }
+}
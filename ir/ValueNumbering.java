@@ -0,0 +1,213 @@
+package ir;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/*
+  Value numbering over extended basic blocks. Every temporary gets a value number, the temporary that
+  first held its value, and every pure instruction is entered in a table under its operation and the
+  value numbers of its operands. An instruction found in the table again is dropped and its uses read
+  the earlier temporary instead. A block with a single predecessor that comes before it continues with
+  the table its predecessor ends with, so the test of an if and the code it guards share values, as
+  in if (a[i] < x) x = a[i], which then loads and checks a[i] once.
+
+  Memory is tracked too: a load is numbered until a store can change what it reads, and a store makes
+  the stored value the value of the next load of the same place. A store to a variable forgets loads
+  of that variable, a store through an address forgets every array element, and a call of a function
+  of the program forgets globals and array elements, while input and output touch no memory. A store
+  of the value the place already holds is dropped, and so is a bounds check already made on the same
+  index.
+
+  Constants, addresses and loads of variables are numbered but kept: reusing them saves no more than
+  one instruction and would keep a register busy for longer.
+*/
+public class ValueNumbering {
+  public int expressions, loads, checks, stores;
+
+  public void run(Program program) {
+    for (Function f : program.functions) {
+      run(f);
+    }
+  }
+
+  /* The operation and operands an instruction is looked up under. */
+  private static class Key {
+    final int op, a, b, imm;
+    final Var var;
+
+    Key(int op, int a, int b, int imm, Var var) {
+      this.op = op;
+      this.a = a;
+      this.b = b;
+      this.imm = imm;
+      this.var = var;
+    }
+
+    public boolean equals(Object o) {
+      Key k = (Key) o;
+      return op == k.op && a == k.a && b == k.b && imm == k.imm && var == k.var;
+    }
+
+    public int hashCode() {
+      int h = op;
+      h = h * 31 + a;
+      h = h * 31 + b;
+      h = h * 31 + imm;
+      return h * 31 + (var == null ? 0 : var.hashCode());
+    }
+  }
+
+  public void run(Function f) {
+    CFG cfg = new CFG(f);
+    int[] vn = new int[f.temps];
+    int[] alias = new int[f.temps]; // temporary that replaces a dropped one, or -1
+    for (int t = 0; t < f.temps; t++) {
+      vn[t] = t;
+      alias[t] = -1;
+    }
+    boolean[] dropped = new boolean[f.code.size()];
+    ArrayList<HashMap<Key, Integer>> exit = new ArrayList<HashMap<Key, Integer>>(cfg.blocks);
+    for (int b = 0; b < cfg.blocks; b++) {
+      exit.add(null);
+    }
+    boolean any = false;
+    for (int k = 0; k < cfg.reachable; k++) {
+      int b = cfg.rpo[k];
+      HashMap<Key, Integer> table;
+      int p = cfg.predecessors(b) == 1 ? cfg.pred[cfg.predStart[b]] : -1;
+      if (p >= 0 && cfg.rpoIndex[p] < k && exit.get(p) != null) {
+        table = new HashMap<Key, Integer>(exit.get(p));
+      } else {
+        table = new HashMap<Key, Integer>();
+      }
+      for (int i = cfg.start[b]; i < cfg.end[b]; i++) {
+        Instr instr = f.code.get(i);
+        int a = instr.a >= 0 ? vn[resolve(alias, instr.a)] : -1;
+        int c = instr.b >= 0 ? vn[resolve(alias, instr.b)] : -1;
+        if (instr.op == Instr.ADD || instr.op == Instr.MUL) {
+          // Commutative: one order for both.
+          if (a > c) {
+            int swap = a;
+            a = c;
+            c = swap;
+          }
+        }
+        Key key;
+        switch (instr.op) {
+        case Instr.CONST:
+        case Instr.ADDR:
+        case Instr.LOAD:
+          key = new Key(instr.op, -1, -1, instr.imm, instr.var);
+          number(table, key, instr.dst, vn);
+          break;
+        case Instr.ADD:
+        case Instr.SUB:
+        case Instr.MUL:
+        case Instr.DIV:
+        case Instr.SET:
+        case Instr.LOADI:
+          key = new Key(instr.op, a, c, instr.op == Instr.SET ? instr.imm : 0, null);
+          Integer known = table.get(key);
+          if (known != null) {
+            dropped[i] = true;
+            alias[instr.dst] = known;
+            vn[instr.dst] = vn[known];
+            if (instr.op == Instr.LOADI) {
+              loads++;
+            } else {
+              expressions++;
+            }
+            any = true;
+          } else {
+            table.put(key, instr.dst);
+          }
+          break;
+        case Instr.CHECK:
+          key = new Key(Instr.CHECK, a, -1, instr.imm, null);
+          if (table.containsKey(key)) {
+            dropped[i] = true;
+            checks++;
+            any = true;
+          } else {
+            table.put(key, -1);
+          }
+          break;
+        case Instr.STORE:
+          key = new Key(Instr.LOAD, -1, -1, instr.imm, instr.var);
+          Integer held = table.get(key);
+          if (held != null && vn[held] == a) {
+            dropped[i] = true;
+            stores++;
+            any = true;
+            break;
+          }
+          forget(table, instr.var.isArray() ? null : instr.var, false);
+          table.put(key, resolve(alias, instr.a));
+          break;
+        case Instr.STOREI:
+          forget(table, null, false);
+          table.put(new Key(Instr.LOADI, a, -1, 0, null), resolve(alias, instr.b));
+          break;
+        case Instr.CALL:
+          if (instr.function >= 0) {
+            forget(table, null, true);
+          }
+          break;
+        default:
+          break;
+        }
+      }
+      exit.set(b, table);
+    }
+    if (!any) {
+      return;
+    }
+    ArrayList<Instr> code = new ArrayList<Instr>(f.code.size());
+    for (int i = 0; i < dropped.length; i++) {
+      if (!dropped[i]) {
+        Instr instr = f.code.get(i);
+        instr.a = resolve(alias, instr.a);
+        instr.b = resolve(alias, instr.b);
+        code.add(instr);
+      }
+    }
+    f.code = code;
+  }
+
+  /* Gives dst the value number of an earlier instruction under key, or enters it. */
+  private static void number(HashMap<Key, Integer> table, Key key, int dst, int[] vn) {
+    Integer known = table.get(key);
+    if (known != null) {
+      vn[dst] = vn[known];
+    } else {
+      table.put(key, dst);
+    }
+  }
+
+  private static int resolve(int[] alias, int t) {
+    while (t >= 0 && alias[t] >= 0) {
+      t = alias[t];
+    }
+    return t;
+  }
+
+  /* Forgets the loads a store to the scalar var can change. A null var stands for a store to an array
+     element, which can change every element, and call for a call, which can also change every global. */
+  private static void forget(HashMap<Key, Integer> table, Var var, boolean call) {
+    for (Iterator<Key> it = table.keySet().iterator(); it.hasNext();) {
+      Key key = it.next();
+      boolean element = key.op == Instr.LOADI || (key.op == Instr.LOAD && key.var.size > 0);
+      if (var != null ? key.op == Instr.LOAD && key.var == var
+          : element || (call && key.op == Instr.LOAD && key.var.kind == Var.GLOBAL)) {
+        it.remove();
+      }
+    }
+  }
+
+  public void report(PrintStream out) {
+    out.println("Value numbering: " + expressions + " expressions and " + loads + " array loads reused, " + checks
+        + " bounds checks and " + stores + " stores of unchanged values removed");
+  }
+}
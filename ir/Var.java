@@ -0,0 +1,50 @@
+package ir;
+
+/*
+  A variable in memory: a global addressed from gp, or a parameter or local addressed from fp.
+  Arrays are stored downward from their offset, so element i lives at offset - i. An array
+  parameter holds the address of element 0 of the caller's array.
+*/
+public class Var {
+  public final static int GLOBAL = 0;
+  public final static int PARAM = 1;
+  public final static int LOCAL = 2;
+
+  public String name;
+  public int kind;
+  public int offset;
+  public int size; // 0 for a scalar, the length of an array, -1 for an array parameter
+  public int index; // position among the parameters and then locals of its function, or among the globals
+
+  public Var(String name, int kind, int offset, int size) {
+    this.name = name;
+    this.kind = kind;
+    this.offset = offset;
+    this.size = size;
+  }
+
+  /* A scalar parameter or local, whose value only the function itself can change. */
+  public boolean isLocalScalar() {
+    return kind != GLOBAL && size == 0;
+  }
+
+  public boolean isArray() {
+    return size != 0;
+  }
+
+  public boolean isArrayParam() {
+    return size == -1;
+  }
+
+  /* Frame or data slots the variable occupies. */
+  public int slots() {
+    return size > 0 ? size : 1;
+  }
+
+  public String toString() {
+    if (size == 0) {
+      return name;
+    }
+    return name + (size == -1 ? "[]" : "[" + size + "]");
+  }
+}